@@ -0,0 +1,192 @@
+package protoevo.biology;
+
+import protoevo.core.Collidable;
+import protoevo.env.Rock;
+import protoevo.utils.Vector2;
+
+import java.util.Arrays;
+
+/**
+ * Alternative to casting retina rays, selected with the {@code depth_buffer} vision mode.
+ * The protozoan's field of view is split into one angular bin for each retina ray, spanning the angle
+ * between that ray and its neighbours. Each cell and rock edge in view is rasterised analytically into
+ * the bins it covers, keeping in each bin the nearest surface, its distance, and the fraction of the bin
+ * it covers. A retina cell then reads the contiguous bins of its own rays.
+ * The cost grows with the number of candidates plus the bins they cover, rather than their product with
+ * the number of rays, and an object narrower than a bin is seen in proportion to how much of it it covers
+ * instead of only when a ray happens to hit it.
+ */
+public class AngularDepthBuffer
+{
+	private static final float PI = (float) Math.PI;
+
+	private int nBins;
+	private float binWidth, fov, range;
+	private float[] depths = new float[0], coverages = new float[0];
+	// Direction of the middle of each bin
+	private float[] binX = new float[0], binY = new float[0];
+	private Collidable[] nearest = new Collidable[0];
+
+	private float x, y, dirX, dirY;
+
+	/**
+	 * Clears the buffer and lays out its bins for this tick.
+	 * @param protozoan the protozoan doing the looking
+	 * @param retina the protozoan's retina
+	 * @param range furthest distance at which anything is seen
+	 */
+	public void begin(Protozoan protozoan, Retina retina, float range) {
+		x = protozoan.getX();
+		y = protozoan.getY();
+		float dirLen = protozoan.getDir().len();
+		dirX = dirLen > 0 ? protozoan.getDir().getX() / dirLen : 1;
+		dirY = dirLen > 0 ? protozoan.getDir().getY() / dirLen : 0;
+		this.range = range;
+		fov = retina.getFov();
+
+		int n = 0;
+		for (Retina.Cell cell : retina.getCells())
+			n += cell.getRays().length;
+		if (depths.length < n) {
+			depths = new float[n];
+			coverages = new float[n];
+			nearest = new Collidable[n];
+			binX = new float[n];
+			binY = new float[n];
+		}
+		nBins = n;
+		binWidth = n > 0 ? fov / n : 0;
+		for (int b = 0; b < n; b++) {
+			float t = fov / 2 - (b + 0.5f) * binWidth;
+			float c = (float) Math.cos(t), s = (float) Math.sin(t);
+			binX[b] = dirX * c - dirY * s;
+			binY[b] = dirX * s + dirY * c;
+		}
+		Arrays.fill(depths, 0, n, Float.MAX_VALUE);
+		Arrays.fill(coverages, 0, n, 0);
+	}
+
+	/**
+	 * Rasterises a cell into the bins it covers, with the depth of each bin being the distance along
+	 * the bin's direction to the near side of the cell, or to the far side when looking out from inside it.
+	 */
+	public void addCandidate(Cell other) {
+		float dx = other.getX() - x, dy = other.getY() - y;
+		float d2 = dx*dx + dy*dy;
+		float d = (float) Math.sqrt(d2);
+		float r = other.getRadius();
+		if (d - r > range)
+			return;
+
+		boolean inside = d <= r;
+		float angle = inside ? 0 : relativeAngle(dx, dy);
+		float halfWidth = inside ? PI : RayCaster.atan2(r, (float) Math.sqrt(d2 - r*r));
+		// Depth where a direction only grazes the cell, used for the bins the cell only partly covers
+		float tangentDepth = inside ? 0 : (float) Math.sqrt(d2 - r*r);
+		for (int shift = -1; shift <= 1; shift++) {
+			float centre = angle + shift * 2 * PI;
+			int lo = binAt(centre + halfWidth), hi = binAt(centre - halfWidth);
+			for (int b = Math.max(0, lo); b <= Math.min(nBins - 1, hi); b++) {
+				float binHi = fov / 2 - b * binWidth, binLo = binHi - binWidth;
+				float coverage = (Math.min(binHi, centre + halfWidth) - Math.max(binLo, centre - halfWidth)) / binWidth;
+				if (coverage <= 0)
+					continue;
+				float along = binX[b] * dx + binY[b] * dy, across = binX[b] * dy - binY[b] * dx;
+				float depth;
+				if (inside)
+					depth = along + (float) Math.sqrt(r*r - across*across);
+				else if (Math.abs(across) < r && along > 0)
+					depth = along - (float) Math.sqrt(r*r - across*across);
+				else
+					depth = tangentDepth;
+				write(b, other, depth, coverage);
+			}
+		}
+	}
+
+	/**
+	 * Rasterises the exposed edges of a rock into the bins they cover,
+	 * with the depth of each bin being the distance along the bin's direction to the edge.
+	 */
+	public void addRock(Rock rock) {
+		Vector2[][] edges = rock.getEdges();
+		for (int i = 0; i < edges.length; i++) {
+			if (rock.isEdgeAttached(i))
+				continue;
+			float ax = edges[i][0].getX() - x, ay = edges[i][0].getY() - y;
+			float bx = edges[i][1].getX() - x, by = edges[i][1].getY() - y;
+			float ex = bx - ax, ey = by - ay;
+			// Distance from the protozoan to the line through the edge, which no bin can see nearer than
+			float lineDist = Math.abs(ax*ey - ay*ex) / (float) Math.sqrt(ex*ex + ey*ey);
+			if (lineDist > range)
+				continue;
+
+			float angleA = relativeAngle(ax, ay), angleB = relativeAngle(bx, by);
+			// The edge does not pass through the protozoan, so it subtends less than half a turn
+			float span = angleA - angleB;
+			if (span > PI)
+				span -= 2 * PI;
+			else if (span < -PI)
+				span += 2 * PI;
+			float angleHi = Math.max(angleB, angleB + span), angleLo = Math.min(angleB, angleB + span);
+
+			for (int shift = -1; shift <= 1; shift++) {
+				float hiEdge = angleHi + shift * 2 * PI, loEdge = angleLo + shift * 2 * PI;
+				int lo = binAt(hiEdge), hi = binAt(loEdge);
+				for (int b = Math.max(0, lo); b <= Math.min(nBins - 1, hi); b++) {
+					float binHi = fov / 2 - b * binWidth, binLo = binHi - binWidth;
+					float coverage = (Math.min(binHi, hiEdge) - Math.max(binLo, loEdge)) / binWidth;
+					if (coverage <= 0)
+						continue;
+					float middle = binHi - binWidth / 2;
+					float denom = binX[b]*ey - binY[b]*ex;
+					float depth;
+					if (middle >= loEdge && middle <= hiEdge && denom != 0)
+						depth = (ax*ey - ay*ex) / denom;
+					else
+						// The middle of the bin may miss the edge, so use its nearer end
+						depth = (float) Math.sqrt(Math.min(ax*ax + ay*ay, bx*bx + by*by));
+					if (depth >= 0)
+						write(b, rock, depth, coverage);
+				}
+			}
+		}
+	}
+
+	private void write(int b, Collidable o, float depth, float coverage) {
+		if (depth > range || depth >= depths[b])
+			return;
+		depths[b] = depth;
+		coverages[b] = Math.min(1, coverage);
+		nearest[b] = o;
+	}
+
+	/**
+	 * Records the nearest surface in each bin into the retina cell ray it belongs to.
+	 */
+	public void resolve(Retina retina) {
+		int b = 0;
+		for (Retina.Cell cell : retina.getCells()) {
+			int nRays = cell.getRays().length;
+			for (int i = 0; i < nRays; i++, b++) {
+				if (nearest[b] == null)
+					continue;
+				cell.set(i, nearest[b].getRGB(), depths[b] * depths[b], coverages[b]);
+				nearest[b] = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the bin containing the angle relative to the protozoan's direction,
+	 * which may lie outside of the buffer. Bin 0 is at the anticlockwise edge of the field of view,
+	 * matching the order of the retina's cells and rays.
+	 */
+	private int binAt(float angle) {
+		return (int) Math.floor((fov / 2 - angle) / binWidth);
+	}
+
+	private float relativeAngle(float dx, float dy) {
+		return RayCaster.atan2(dirX*dy - dirY*dx, dirX*dx + dirY*dy);
+	}
+}
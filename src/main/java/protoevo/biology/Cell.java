@@ -4,11 +4,12 @@ import protoevo.core.Particle;
 import protoevo.core.Settings;
 import protoevo.core.Simulation;
 import protoevo.env.Rock;
+import protoevo.env.RockField;
 import protoevo.env.Tank;
+import protoevo.utils.Colours;
 import protoevo.utils.Geometry;
 import protoevo.utils.Vector2;
 
-import java.awt.*;
 import java.io.Serializable;
 import java.util.*;
 
@@ -20,9 +21,13 @@ public abstract class Cell extends Particle implements Serializable
 	public interface EntityBuilder<T, R> {
 		R apply(T t) throws MiscarriageException;
 	}
-	private Color healthyColour, fullyDegradedColour;
+	private int healthyColour, fullyDegradedColour;
+	private boolean hasDegradedColour = false;
+	// Blended whenever the health or colours change, as other cells' vision threads read it at any time
+	private volatile int colour;
 	private int generation = 1;
-	private float mass = -1;
+	// Order in which the cell was added to its tank
+	private long birthIndex;
 	private boolean dead = false;
 	protected boolean hasHandledDeath = false;
 	private float timeAlive = 0f;
@@ -31,8 +36,11 @@ public abstract class Cell extends Particle implements Serializable
 	private float energyAvailable = Settings.startingAvailableCellEnergy;
 	private float constructionMassAvailable, wasteMass;
 	private final Map<Food.ComplexMolecule, Float> availableComplexMolecules;
-	private final Collection<CellAdhesion.CellBinding> cellBindings, toAttach;
+	private final Collection<CellAdhesion.CellBinding> cellBindings;
+	private final List<CellAdhesion.CellBinding> toAttach;
 	private final Map<CellAdhesion.CellAdhesionMolecule, Float> surfaceCAMs;
+	// The keys of surfaceCAMs, in a list that can be looped over without an iterator
+	private final List<CellAdhesion.CellAdhesionMolecule> surfaceCAMTypes;
 	private final Map<Food.Type, Float> foodDigestionRates;
 	private final Map<Food.Type, Food> foodToDigest;
 	private final Collection<ConstructionProject> constructionProjects;
@@ -43,12 +51,13 @@ public abstract class Cell extends Particle implements Serializable
 	public Cell(Tank tank)
 	{
 		super(tank);
-		healthyColour = new Color(255, 255, 255);
+		setHealthyColour(Colours.rgb(255, 255, 255));
 		foodDigestionRates = new TreeMap<>();
 		foodToDigest = new TreeMap<>();
 		cellBindings = new ArrayList<>(10);
 		toAttach = new ArrayList<>(5);
 		surfaceCAMs = new HashMap<>(10);
+		surfaceCAMTypes = new ArrayList<>(10);
 		constructionProjects = new ArrayList<>(10);
 		complexMoleculeProductionRates = new TreeMap<>();
 		camProductionRates = new HashMap<>(10);
@@ -56,7 +65,7 @@ public abstract class Cell extends Particle implements Serializable
 	}
 	
 	public void update(float delta) {
-		mass = computeMass();
+		setStoredMass(computeMass());
 		timeAlive += delta;
 		digest(delta);
 		repair(delta);
@@ -64,6 +73,8 @@ public abstract class Cell extends Particle implements Serializable
 		progressConstructionProjects(delta);
 
 		if (!toAttach.isEmpty()) {
+			// Bindings may be attached from other threads, so they are put in an order that does not depend on them
+			toAttach.sort((a, b) -> Particle.compareSlots(a.getDestinationEntity(), b.getDestinationEntity()));
 			cellBindings.addAll(toAttach);
 			toAttach.clear();
 		}
@@ -105,8 +116,7 @@ public abstract class Cell extends Particle implements Serializable
 			float producedMass = delta * camProductionRates.getOrDefault(cam, 0f);
 			float requiredEnergy = cam.getProductionCost() * producedMass;
 			if (producedMass > 0 && constructionMassAvailable > producedMass && energyAvailable > requiredEnergy) {
-				float currentAmount = surfaceCAMs.getOrDefault(cam, 0f);
-				surfaceCAMs.put(cam, currentAmount + producedMass);
+				setCAMAvailable(cam, getCAMAvailable(cam) + producedMass);
 				useConstructionMass(producedMass);
 				useEnergy(requiredEnergy);
 			}
@@ -125,6 +135,7 @@ public abstract class Cell extends Particle implements Serializable
 		Food.Type foodType = cell.getFoodType();
 		float extractedMass = cell.getMass() * extraction;
 		cell.removeMass(Settings.foodExtractionWasteMultiplier * extractedMass);
+		cell.wake();
 		cell.setHealth(cell.getHealth() * (1 - 5f * extraction));
 		Food food = foodToDigest.getOrDefault(foodType, new Food(extractedMass, foodType));
 		food.addSimpleMass(extractedMass);
@@ -174,19 +185,13 @@ public abstract class Cell extends Particle implements Serializable
 		Cell e = binding.getDestinationEntity();
 		if (e.isDead())
 			return true;
-		float dist = e.getPos().sub(getPos()).len();
+		float dx = e.getX() - getX(), dy = e.getY() - getY();
+		float dist = (float) Math.sqrt(dx*dx + dy*dy);
 		float maxDist = 1.3f * (e.getRadius() + getRadius());
 		float minDist = 0.95f * (e.getRadius() + getRadius());
 		return dist > maxDist || dist < minDist;
 	}
 
-	@Override
-	public void physicsStep(float delta) {
-		for (CellAdhesion.CellBinding binding : cellBindings)
-			handleBindingConstraint(binding.getDestinationEntity());
-		super.physicsStep(delta);
-	}
-
 	public void addConstructionProject(ConstructionProject project) {
 		constructionProjects.add(project);
 	}
@@ -231,7 +236,7 @@ public abstract class Cell extends Particle implements Serializable
 	}
 
 	public Collection<CellAdhesion.CellAdhesionMolecule> getSurfaceCAMs() {
-		return surfaceCAMs.keySet();
+		return surfaceCAMTypes;
 	}
 
 	public boolean cannotMakeBinding() {
@@ -242,11 +247,13 @@ public abstract class Cell extends Particle implements Serializable
 	public void onParticleCollisionCallback(Particle p, float delta) {
 		if (p instanceof Cell) {
 			Cell otherCell = (Cell) p;
-			if (otherCell.cannotMakeBinding() || cannotMakeBinding())
+			if (otherCell.cannotMakeBinding() || cannotMakeBinding() || !actsForPair(otherCell))
 				return;
-
-			for (CellAdhesion.CellAdhesionMolecule myCAM : getSurfaceCAMs()) {
-				for (CellAdhesion.CellAdhesionMolecule theirCAM : otherCell.getSurfaceCAMs()) {
+			// Indexed loops, since an iterator per collision would allocate in the physics pass
+			for (int i = 0; i < surfaceCAMTypes.size(); i++) {
+				CellAdhesion.CellAdhesionMolecule myCAM = surfaceCAMTypes.get(i);
+				for (int j = 0; j < otherCell.surfaceCAMTypes.size(); j++) {
+					CellAdhesion.CellAdhesionMolecule theirCAM = otherCell.surfaceCAMTypes.get(j);
 					// TODO: implement probabilistic CAM binding based on amounts
 					if (myCAM.bindsTo(theirCAM)) {
 						createNewBinding(myCAM, otherCell);
@@ -312,6 +319,8 @@ public abstract class Cell extends Particle implements Serializable
 	public void handleSignallingBindingInteraction(CellAdhesion.CellBinding binding, float delta) {}
 
 	public boolean isAttached(Cell e) {
+		if (cellBindings.isEmpty())
+			return false;
 		for (CellAdhesion.CellBinding binding : cellBindings)
 			if (binding.getDestinationEntity().equals(e))
 				return true;
@@ -332,6 +341,7 @@ public abstract class Cell extends Particle implements Serializable
 
 		if (health < 0.05)
 			killCell();
+		updateColour();
 	}
 
 	public void handleDeath() {
@@ -340,13 +350,18 @@ public abstract class Cell extends Particle implements Serializable
 
 	@Override
 	public boolean handlePotentialCollision(Rock rock, float delta) {
-		if (rock.pointInside(getPos())) {
+		if (rock.pointInside(getX(), getY())) {
 			killCell();
 			return true;
 		}
 		return super.handlePotentialCollision(rock, delta);
 	}
 
+	@Override
+	protected void handleInsideRock(RockField rockField, float dist, float delta) {
+		killCell();
+	}
+
 	public abstract String getPrettyName();
 
 	public Map<String, Float> getStats() {
@@ -410,8 +425,8 @@ public abstract class Cell extends Particle implements Serializable
 
 	public Map<String, Float> getDebugStats() {
 		TreeMap<String, Float> stats = new TreeMap<>();
-		stats.put("Position X", Settings.statsDistanceScalar * getPos().getX());
-		stats.put("Position Y", Settings.statsDistanceScalar * getPos().getY());
+		stats.put("Position X", Settings.statsDistanceScalar * getX());
+		stats.put("Position Y", Settings.statsDistanceScalar * getY());
 		return stats;
 	}
 	
@@ -426,40 +441,36 @@ public abstract class Cell extends Particle implements Serializable
 	public void killCell() {
 		dead = true;
 		health = 0;
+		updateColour();
+	}
+
+	private void updateColour() {
+		colour = Colours.lerp(healthyColour, fullyDegradedColour, 1 - health);
 	}
 
 	@Override
-	public Color getColor() {
-		Color healthyColour = getHealthyColour();
-		Color degradedColour = getFullyDegradedColour();
-		return new Color(
-			(int) (healthyColour.getRed() + (1 - getHealth()) * (degradedColour.getRed() - healthyColour.getRed())),
-			(int) (healthyColour.getGreen() + (1 - getHealth()) * (degradedColour.getGreen() - healthyColour.getGreen())),
-			(int) (healthyColour.getBlue() + (1 - getHealth()) * (degradedColour.getBlue() - healthyColour.getBlue()))
-		);
+	public int getRGB() {
+		return colour;
 	}
 
-	public Color getHealthyColour() {
+	public int getHealthyColour() {
 		return healthyColour;
 	}
 
-	public void setHealthyColour(Color healthyColour) {
+	public void setHealthyColour(int healthyColour) {
 		this.healthyColour = healthyColour;
+		if (!hasDegradedColour)
+			fullyDegradedColour = Colours.scale(healthyColour, 0.7f);
+		updateColour();
 	}
 
-	public void setDegradedColour(Color fullyDegradedColour) {
+	public void setDegradedColour(int fullyDegradedColour) {
 		this.fullyDegradedColour = fullyDegradedColour;
+		hasDegradedColour = true;
+		updateColour();
 	}
 
-	public Color getFullyDegradedColour() {
-		if (fullyDegradedColour == null) {
-			Color healthyColour = getHealthyColour();
-			int r = healthyColour.getRed();
-			int g = healthyColour.getGreen();
-			int b = healthyColour.getBlue();
-			float p = 0.7f;
-			return new Color((int) (r*p), (int) (g*p), (int) (b*p));
-		}
+	public int getFullyDegradedColour() {
 		return fullyDegradedColour;
 	}
 
@@ -471,6 +482,14 @@ public abstract class Cell extends Particle implements Serializable
 		this.generation = generation;
 	}
 
+	public long getBirthIndex() {
+		return birthIndex;
+	}
+
+	public void setBirthIndex(long birthIndex) {
+		this.birthIndex = birthIndex;
+	}
+
 	public int burstMultiplier() {
 		return 20;
 	}
@@ -499,7 +518,7 @@ public abstract class Cell extends Particle implements Serializable
 				child.setGeneration(getGeneration() + 1);
 				allocateChildResources(child, p);
 				for (Cell otherChild : children)
-					child.handlePotentialCollision(otherChild, 0);
+					child.separateFrom(otherChild, 0);
 				children.add(child);
 			} catch (MiscarriageException ignored) {}
 			angle += 2 * Math.PI / nChildren;
@@ -508,7 +527,7 @@ public abstract class Cell extends Particle implements Serializable
 		for (int j = 0; j < 8; j++)
 			for (Cell child1 : children)
 				for (Cell child2 : children)
-					child1.handlePotentialCollision(child2, 0);
+					child1.separateFrom(child2, 0);
 		children.forEach(tank::add);
 	}
 
@@ -545,7 +564,8 @@ public abstract class Cell extends Particle implements Serializable
 	}
 
 	public void setCAMAvailable(CellAdhesion.CellAdhesionMolecule cam, float amount) {
-		surfaceCAMs.put(cam, amount);
+		if (surfaceCAMs.put(cam, amount) == null)
+			surfaceCAMTypes.add(cam);
 	}
 
 	public boolean enoughEnergyAvailable(float work) {
@@ -589,7 +609,7 @@ public abstract class Cell extends Particle implements Serializable
 		float currentAmount = availableComplexMolecules.getOrDefault(molecule, 0f);
 		float newAmount = Math.min(getComplexMoleculeMassCap(), currentAmount + amount);
 		availableComplexMolecules.put(molecule, newAmount);
-		mass = computeMass();
+		setStoredMass(computeMass());
 	}
 
 	private float getComplexMoleculeMassCap() {
@@ -598,7 +618,7 @@ public abstract class Cell extends Particle implements Serializable
 
 	public void setComplexMoleculeAvailable(Food.ComplexMolecule molecule, float amount) {
 		availableComplexMolecules.put(molecule, Math.max(0, amount));
-		mass = computeMass();
+		setStoredMass(computeMass());
 	}
 
 	public float getConstructionMassCap() {
@@ -607,7 +627,7 @@ public abstract class Cell extends Particle implements Serializable
 
 	public void setAvailableConstructionMass(float mass) {
 		constructionMassAvailable = Math.min(mass, getConstructionMassCap());
-		this.mass = computeMass();
+		setStoredMass(computeMass());
 	}
 
 	public float getConstructionMassAvailable() {
@@ -632,8 +652,11 @@ public abstract class Cell extends Particle implements Serializable
 
 	@Override
 	public float getMass() {
-		if (mass < 0)
+		float mass = getStoredMass();
+		if (mass < 0) {
 			mass = computeMass();
+			setStoredMass(mass);
+		}
 		return mass;
 	}
 
@@ -19,6 +19,14 @@ public abstract class EdibleCell extends Cell
 		return true;
 	}
 
+	/**
+	 * Pellets that are not bound to other cells are only moved by collisions, so they can sleep when still.
+	 */
+	@Override
+	public boolean canSleep() {
+		return getCellBindings().isEmpty();
+	}
+
 	public Food.Type getFoodType() {
 		return foodType;
 	}
@@ -4,13 +4,15 @@ import protoevo.env.ChemicalSolution;
 import protoevo.core.Settings;
 import protoevo.neat.NeuralNetwork;
 
-import java.awt.*;
-
 public class NNBrain implements Brain {
 
+    // Inputs that sense() always sets to the same values, which the network can fold into its neurons
+    public static final float[] CONSTANT_INPUTS = {1};
+
     public final NeuralNetwork network;
     private float[] outputs;
     private final float[] inputs;
+    private final float[] colour = new float[3];
     private final float maxTurn;
 
     public NNBrain(NeuralNetwork network, float maxTurn) {
@@ -26,10 +28,20 @@ public class NNBrain implements Brain {
 
     @Override
     public void tick(Protozoan p)
+    {
+        sense(p);
+        network.tick();
+        act();
+    }
+
+    /**
+     * Sets the network's inputs from what the protozoan senses, ready for its network to be ticked.
+     */
+    public void sense(Protozoan p)
     {
         int i = 0;
         // ProtozoaGenome.nonVisualSensorSize
-        inputs[i++] = 1; // bias term
+        inputs[i++] = CONSTANT_INPUTS[0]; // bias term
         inputs[i++] = p.getHealth() * 2 - 1;
         inputs[i++] = 2 * p.getRadius() / p.getGenome().getSplitRadius() - 1;
         inputs[i++] = 2 * p.getConstructionMassAvailable() / p.getConstructionMassCap() - 1;
@@ -39,26 +51,25 @@ public class NNBrain implements Brain {
 
         if (Settings.enableChemicalField) {
             ChemicalSolution chemicalSolution = p.getTank().getChemicalSolution();
-            int chemicalX1 = chemicalSolution.toChemicalGridX(p.getPos().getX() - p.getRadius());
-            int chemicalX2 = chemicalSolution.toChemicalGridX(p.getPos().getX() + p.getRadius());
-            int chemicalY1 = chemicalSolution.toChemicalGridY(p.getPos().getX() - p.getRadius());
-            int chemicalY2 = chemicalSolution.toChemicalGridY(p.getPos().getX() + p.getRadius());
+            int chemicalX1 = chemicalSolution.toChemicalGridX(p.getX() - p.getRadius());
+            int chemicalX2 = chemicalSolution.toChemicalGridX(p.getX() + p.getRadius());
+            int chemicalY1 = chemicalSolution.toChemicalGridY(p.getX() - p.getRadius());
+            int chemicalY2 = chemicalSolution.toChemicalGridY(p.getX() + p.getRadius());
             inputs[i++] = chemicalSolution.getPlantPheromoneDensity(chemicalX1, chemicalY1) -
                     chemicalSolution.getPlantPheromoneDensity(chemicalX2, chemicalY2);
             inputs[i++] = chemicalSolution.getPlantPheromoneDensity(chemicalX1, chemicalY2) -
                     chemicalSolution.getPlantPheromoneDensity(chemicalX2, chemicalY1);
-            int chemicalX = chemicalSolution.toChemicalGridX(p.getPos().getX());
-            int chemicalY = chemicalSolution.toChemicalGridX(p.getPos().getY());
+            int chemicalX = chemicalSolution.toChemicalGridX(p.getX());
+            int chemicalY = chemicalSolution.toChemicalGridX(p.getY());
             inputs[i++] = 2 * chemicalSolution.getPlantPheromoneDensity(chemicalX, chemicalY) - 1;
         }
 
         float retinaHealth = p.getRetina().getHealth();
         for (Retina.Cell cell : p.getRetina()) {
-            if (cell.anythingVisible()) {
-                Color colour = cell.getColour();
-                inputs[i++] = retinaHealth * (-1 + 2 * colour.getRed() / 255f);
-                inputs[i++] = retinaHealth * (-1 + 2 * colour.getGreen() / 255f);
-                inputs[i++] = retinaHealth * (-1 + 2 * colour.getBlue() / 255f);
+            if (cell.getColour(colour)) {
+                inputs[i++] = retinaHealth * (-1 + 2 * colour[0] / 255f);
+                inputs[i++] = retinaHealth * (-1 + 2 * colour[1] / 255f);
+                inputs[i++] = retinaHealth * (-1 + 2 * colour[2] / 255f);
             } else {
                 inputs[i++] = 0f;
                 inputs[i++] = 0f;
@@ -67,7 +78,13 @@ public class NNBrain implements Brain {
         }
 
         network.setInput(inputs);
-        network.tick();
+    }
+
+    /**
+     * Takes the outputs from the network once it has been ticked.
+     */
+    public void act()
+    {
         outputs = network.outputs();
     }
 
@@ -1,14 +1,12 @@
 package protoevo.biology;
 
-import protoevo.core.ChunkManager;
 import protoevo.core.Particle;
 import protoevo.core.Settings;
 import protoevo.core.Simulation;
 import protoevo.env.Tank;
+import protoevo.utils.Colours;
 import protoevo.utils.Vector2;
 
-import java.awt.*;
-import java.util.Iterator;
 import java.util.Map;
 
 public class PlantCell extends EdibleCell {
@@ -29,7 +27,7 @@ public class PlantCell extends EdibleCell {
         float range = Settings.maxPlantBirthRadius - radius;
         maxRadius = (float) (radius + range * Simulation.RANDOM.nextDouble());
 
-        setHealthyColour(new Color(
+        setHealthyColour(Colours.rgb(
                 30 + Simulation.RANDOM.nextInt(105),
                 150  + Simulation.RANDOM.nextInt(100),
                 10  + Simulation.RANDOM.nextInt(100))
@@ -38,12 +36,11 @@ public class PlantCell extends EdibleCell {
     }
 
     @Override
-    public boolean handlePotentialCollision(Particle p, float delta) {
-        boolean collision = super.handlePotentialCollision(p, delta);
+    public boolean handlePotentialCollision(Particle p, float sqDist, float delta) {
+        boolean collision = super.handlePotentialCollision(p, sqDist, delta);
         if (p != this && p instanceof PlantCell) {
             PlantCell otherPlant = (PlantCell) p;
-            force.set(p.getPos()).take(getPos());
-            float sqDist = force.len2();
+            force.set(p.getX() - getX(), p.getY() - getY());
             float r = getRadius() + otherPlant.getRadius();
             if (sqDist > 1.01f*r*r && !isAttached(otherPlant)) {
                 force.setLength(plantAttractionFactor / sqDist);
@@ -71,13 +68,20 @@ public class PlantCell extends EdibleCell {
         return crowdingFactor;
     }
 
-    private void updateCrowding(Cell e) {
-        float sqDist = e.getPos().squareDistanceTo(getPos());
+    private void updateCrowding(Cell e, float sqDist, float delta) {
         if (sqDist < Math.pow(3 * getRadius(), 2)) {
             crowdingFactor += e.getRadius() / (getRadius() + sqDist);
         }
     }
 
+    /**
+     * Reaches as far as the centres of the cells counted towards the plant's crowding.
+     */
+    @Override
+    public float getInteractRange() {
+        return 3 * getRadius();
+    }
+
     @Override
     public void update(float delta) {
         super.update(delta);
@@ -88,9 +92,9 @@ public class PlantCell extends EdibleCell {
         crowdingFactorTime += delta;
         if (crowdingFactorTime > crowdingFactorFreq * delta) {
             crowdingFactor = 0;
-            ChunkManager chunkManager = getTank().getChunkManager();
-            Iterator<Cell> entities = chunkManager.broadEntityDetection(getPos(), getRadius());
-            entities.forEachRemaining(this::updateCrowding);
+            // The plant counts towards its own crowding
+            updateCrowding(this, 0, delta);
+            getTank().getChunkManager().getContacts().forEachPartner(this, false, PlantCell::updateCrowding, delta);
             crowdingFactorTime = 0;
 
             float x = (-getCrowdingFactor() + Settings.plantCriticalCrowding) / Settings.plantCrowdingGrowthDecay;
@@ -4,12 +4,15 @@ import protoevo.biology.genes.CAMProductionGene;
 import protoevo.biology.genes.ProtozoaGenome;
 import protoevo.biology.genes.RetinalProductionGene;
 import protoevo.core.*;
+import protoevo.env.Rock;
+import protoevo.env.RockEdgeBVH;
+import protoevo.env.RockField;
 import protoevo.env.Tank;
 import protoevo.neat.NeuralNetwork;
+import protoevo.utils.Geometry;
 import protoevo.utils.Vector2;
 
 import java.io.Serializable;
-import java.util.Iterator;
 import java.util.Map;
 
 public class Protozoan extends Cell
@@ -79,7 +82,7 @@ public class Protozoan extends Cell
 		herbivoreFactor = genome.getHerbivoreFactor();
 
 		setRadius(genome.getRadius());
-		setHealthyColour(genome.getColour());
+		setHealthyColour(genome.getColour().getRGB());
 		setGrowthRate(genome.getGrowthRate());
 		splitRadius = genome.getSplitRadius();
 
@@ -118,26 +121,48 @@ public class Protozoan extends Cell
 	}
 
 	public Vector2 getSensorPosition(ContactSensor sensor) {
-		return getPos().add(dir.rotate(sensor.angle).setLength(1.01f * getRadius()));
-	}
-
-	@Override
-	public boolean handlePotentialCollision(Collidable other, float delta) {
-		if (other != this) {
-			for (ContactSensor contactSensor : contactSensors) {
-				if (other.pointInside(getSensorPosition(contactSensor))) {
-					contactSensor.contact = other;
+		return getSensorPosition(sensor, new Vector2(0, 0));
+	}
+
+	/**
+	 * @param sensor the contact sensor
+	 * @param out the vector to write the position to
+	 * @return out, set to the position of the sensor
+	 */
+	public Vector2 getSensorPosition(ContactSensor sensor, Vector2 out) {
+		return out.set(dir).turn(sensor.angle).setLength(1.01f * getRadius()).translate(getX(), getY());
+	}
+
+	private final Vector2 sensorPosTmp = new Vector2(0, 0);
+	private void sense(Collidable other) {
+		if (other != this && contactSensors.length > 0) {
+			ProtozoanGeometry geometry = getGeometry();
+			for (int i = 0; i < contactSensors.length; i++) {
+				sensorPosTmp.set(geometry.getSensorX(i), geometry.getSensorY(i)).translate(getX(), getY());
+				if (other.pointInside(sensorPosTmp)) {
+					contactSensors[i].contact = other;
 				}
 			}
 		}
-		return super.handlePotentialCollision(other, delta);
+	}
+
+	@Override
+	public boolean handlePotentialCollision(Particle p, float sqDist, float delta) {
+		sense(p);
+		return super.handlePotentialCollision(p, sqDist, delta);
+	}
+
+	@Override
+	public boolean handlePotentialCollision(Rock rock, float delta) {
+		sense(rock);
+		return super.handlePotentialCollision(rock, delta);
 	}
 
 	public boolean cullFromRayCasting(Collidable o) {
 		if (o instanceof Particle) {
 			Particle p = (Particle) o;
-			float dx = p.getPos().getX() - getPos().getX();
-			float dy = p.getPos().getY() - getPos().getY();
+			float dx = p.getX() - getX();
+			float dy = p.getY() - getY();
 			float d2 = dx * dx + dy * dy;
 			float dirX = getDir().getX();
 			float dirY = getDir().getY();
@@ -147,6 +172,30 @@ public class Protozoan extends Cell
 		return false;
 	}
 
+	private static final boolean useDepthBuffer = "depth_buffer".equals(Settings.visionMode);
+	private transient RayCaster rayCaster;
+	private transient AngularDepthBuffer depthBuffer;
+	private transient VisionScheduler.Viewer viewer;
+	private transient ProtozoanGeometry geometry;
+	// Stride between the rays cast this tick, or 0 when the retina is kept as it was
+	private transient int visionStride;
+
+	private RayCaster getRayCaster() {
+		if (rayCaster == null)
+			rayCaster = new RayCaster();
+		return rayCaster;
+	}
+
+	private AngularDepthBuffer getDepthBuffer() {
+		if (depthBuffer == null)
+			depthBuffer = new AngularDepthBuffer();
+		return depthBuffer;
+	}
+
+	private static void seeRock(Protozoan protozoan, Rock rock, float delta) {
+		protozoan.getDepthBuffer().addRock(rock);
+	}
+
 	private final Vector2 rayEndTmp = new Vector2(0, 0), rayStartTmp = new Vector2(0, 0);
 	private final Collidable.Collision[] collisions = new Collidable.Collision[]{
 			new Collidable.Collision(), new Collidable.Collision()
@@ -156,14 +205,14 @@ public class Protozoan extends Cell
 		if (cullFromRayCasting(o))
 			return;
 
-		rayStartTmp.set(getPos());
+		rayStartTmp.set(getX(), getY());
 		float interactRange = getInteractRange();
-		float dirAngle = getDir().angle();
+		ProtozoanGeometry geometry = getGeometry();
+		int k = 0;
 		for (Retina.Cell cell : retina.getCells()) {
 			Vector2[] rays = cell.getRays();
-			for (int i = 0; i < rays.length; i++) {
-				rayEndTmp.set(rays[i])
-						.turn(dirAngle)
+			for (int i = 0; i < rays.length; i++, k++) {
+				rayEndTmp.set(geometry.getRayX(k), geometry.getRayY(k))
 						.setLength(interactRange)
 						.translate(rayStartTmp);
 				o.rayCollisions(rayStartTmp, rayEndTmp, collisions);
@@ -174,7 +223,7 @@ public class Protozoan extends Cell
 						sqLen = Math.min(sqLen, collision.point.squareDistanceTo(rayStartTmp));
 
 				if (sqLen < cell.collisionSqLen(i))
-					cell.set(i, o.getColor(), sqLen);
+					cell.set(i, o.getRGB(), sqLen);
 			}
 		}
 	}
@@ -215,18 +264,21 @@ public class Protozoan extends Cell
 
 	}
 	
+	/**
+	 * Moves as the brain decides, once it has ticked.
+	 */
 	public void think(float delta)
 	{
-		brain.tick(this);
 		dir.turn(delta * 80 * brain.turn(this));
 		float spikeDecay = (float) Math.pow(Settings.spikeMovementPenaltyFactor, spikes.length);
 		float sizePenalty = getRadius() / splitRadius; // smaller flagella generate less impulse
 		float speed = Math.abs(brain.speed(this));
-		Vector2 vel = dir.mul(sizePenalty * spikeDecay * speed);
-		float work = .5f * getMass() * vel.len2();
+		float s = sizePenalty * spikeDecay * speed;
+		float velX = s * dir.getX(), velY = s * dir.getY();
+		float work = .5f * getMass() * (velX*velX + velY*velY);
 		if (enoughEnergyAvailable(work)) {
 			useEnergy(work);
-			getPos().translate(vel.scale(delta));
+			translate(velX * delta, velY * delta);
 		}
 	}
 
@@ -241,29 +293,58 @@ public class Protozoan extends Cell
 		return child;
 	}
 
+	private boolean canSee() {
+		return retina.numberOfCells() > 0 && retina.getHealth() > 0;
+	}
+
 	public void interact(Collidable other, float delta) {
-		if (other == this)
+		if (other instanceof Cell) {
+			Cell cell = (Cell) other;
+			float dx = cell.getX() - getX();
+			float dy = cell.getY() - getY();
+			interact(cell, dx*dx + dy*dy, delta);
 			return;
+		}
 
 		if (isDead()) {
 			handleDeath();
 			return;
 		}
 
-		if (retina.numberOfCells() > 0 && retina.getHealth() > 0)
+		if (visionStride > 0)
 			see(other);
-
-		if (other instanceof Cell) {
-			interact((Cell) other, delta);
-		}
 	}
 
-	public void interact(Cell other, float delta) {
+	/**
+	 * @param other the cell to interact with
+	 * @param sqDist squared distance to the other cell
+	 * @param delta time step
+	 */
+	public void interact(Cell other, float sqDist, float delta) {
+		if (other == this)
+			return;
+
+		if (isDead()) {
+			handleDeath();
+			return;
+		}
 
-		float d = other.getPos().distanceTo(getPos());
-		if (d - other.getRadius() > getInteractRange())
+		float range = getInteractRange() + other.getRadius();
+		if (sqDist > range * range)
 			return;
 
+		if (canSee() && !cullFromRayCasting(other)) {
+			viewer.observe(other, sqDist);
+			if (visionStride > 0) {
+				if (useDepthBuffer)
+					getDepthBuffer().addCandidate(other);
+				else
+					getRayCaster().addCandidate(other);
+			}
+		}
+
+		float d = (float) Math.sqrt(sqDist);
+
 		if (shouldSplit()) {
 			super.burst(Protozoan.class, this::createSplitChild);
 			return;
@@ -273,10 +354,10 @@ public class Protozoan extends Cell
 
 		if (other instanceof Protozoan) {
 			Protozoan p = (Protozoan) other;
-			for (Spike spike : spikes) {
-				float spikeLen = getSpikeLength(spike);
-				if (d < r + spikeLen && spikeInContact(spike, spikeLen, p))
-					attack(p, spike, delta);
+			ProtozoanGeometry geometry = getGeometry();
+			for (int i = 0; i < spikes.length; i++) {
+				if (d < r + geometry.getSpikeLength(i) && spikeInContact(geometry, i, p))
+					attack(p, spikes[i], delta);
 			}
 		}
 
@@ -303,26 +384,58 @@ public class Protozoan extends Cell
 		}
 	}
 
-	private boolean spikeInContact(Spike spike, float spikeLen, Cell other) {
-		Vector2 spikeStartPos = getDir().unit().rotate(spike.angle).setLength(getRadius()).translate(getPos());
-		Vector2 spikeEndPos = spikeStartPos.add(spikeStartPos.sub(getPos()).setLength(spikeLen));
-		return other.getPos().sub(spikeEndPos).len2() < other.getRadius() * other.getRadius();
+	private boolean spikeInContact(ProtozoanGeometry geometry, int spikeIdx, Cell other) {
+		float endX = getX() + geometry.getSpikeX(spikeIdx);
+		float endY = getY() + geometry.getSpikeY(spikeIdx);
+		return Geometry.isPointInsideCircle(other.getX(), other.getY(), other.getRadius(), endX, endY);
 	}
 
+	@Override
 	public float getInteractRange() {
-		return retina.numberOfCells() > 0 && retina.getHealth() > 0 ?
-				Settings.protozoaInteractRange : getRadius() + 0.005f;
+		return canSee() ? Settings.protozoaInteractRange : getRadius() + 0.005f;
 	}
 
 	@Override
 	public void handleInteractions(float delta) {
 		super.handleInteractions(delta);
 		wasJustDamaged = false;
-		retina.reset();
+		visionStride = 0;
+		if (canSee()) {
+			VisionScheduler scheduler = getTank().getVisionScheduler();
+			if (viewer == null)
+				viewer = scheduler.createViewer(this);
+			visionStride = Math.max(0, scheduler.plan(this, viewer, getInteractRange()));
+		}
+		else {
+			retina.reset();
+		}
+		if (visionStride > 0) {
+			retina.reset();
+			if (useDepthBuffer)
+				getDepthBuffer().begin(this, retina, getInteractRange());
+			else
+				getRayCaster().begin(this, retina, getInteractRange(), visionStride);
+		}
 		ChunkManager chunkManager = getTank().getChunkManager();
-		Iterator<Collidable> entities = chunkManager
-				.broadCollisionDetection(getPos(), getInteractRange());
-		entities.forEachRemaining(e -> interact(e, delta));
+		chunkManager.getContacts().forEachPartner(this, false, Protozoan::interact, delta);
+		if (visionStride > 0) {
+			// Nothing can see a rock when the field shows them all to be out of range
+			RockField rockField = getTank().getRockField();
+			boolean rocksInRange = rockField == null
+					|| rockField.distance(getX(), getY()) - getInteractRange() <= rockField.getTolerance();
+			if (useDepthBuffer) {
+				if (rocksInRange)
+					chunkManager.forEachRockInRange(getX(), getY(), getInteractRange(), this, Protozoan::seeRock, delta);
+				getDepthBuffer().resolve(retina);
+			}
+			else {
+				RockEdgeBVH rockEdges = getTank().getRockEdges();
+				getRayCaster().cast(rocksInRange ? rockEdges : null);
+				if (rockEdges == null)
+					chunkManager.forEachRockInRange(getX(), getY(), getInteractRange(), this, Protozoan::interact, delta);
+			}
+			getTank().getVisionScheduler().recordCast(retina, visionStride);
+		}
 	}
 
 	private void breakIntoPellets() {
@@ -354,7 +467,7 @@ public class Protozoan extends Cell
 			stats.put("Num Spikes", (float) spikes.length);
 		if (brain instanceof NNBrain) {
 			NeuralNetwork nn = ((NNBrain) brain).network;
-			stats.put("Network Depth", (float) nn.getDepth());
+			stats.put("Network Depth", (float) nn.getView().getDepth());
 			stats.put("Network Size", (float) nn.getSize());
 		}
 		if (retina.numberOfCells() > 0) {
@@ -386,18 +499,39 @@ public class Protozoan extends Cell
 
 	@Override
 	public void update(float delta)
+	{
+		beginUpdate(delta);
+		brain.tick(this);
+		finishUpdate(delta);
+	}
+
+	/**
+	 * The part of the update before the brain ticks, for when the tank ticks all the brains together.
+	 */
+	public void beginUpdate(float delta)
 	{
 		super.update(delta);
 
 		age(delta);
 		if (isDead())
 			handleDeath();
+	}
 
+	/**
+	 * The part of the update after the brain ticks.
+	 */
+	public void finishUpdate(float delta)
+	{
 		think(delta);
 
 		for (Spike spike : spikes)
 			spike.update(delta);
 
+		// The protozoan's shape is now fixed until it next thinks
+		if (geometry == null)
+			geometry = new ProtozoanGeometry();
+		geometry.update(this);
+
 		for (ContactSensor contactSensor : contactSensors)
 			contactSensor.reset();
 
@@ -445,9 +579,25 @@ public class Protozoan extends Cell
 	}
 
 	public float getSpikeLength(Spike spike) {
+		return computeSpikeLength(spike);
+	}
+
+	float computeSpikeLength(Spike spike) {
 		return brain.attack(this) * spike.currentLength * getRadius() / splitRadius;
 	}
 
+	/**
+	 * @return the geometry worked out when the protozoan last thought, or now if it has
+	 * not thought yet or has since changed size
+	 */
+	public ProtozoanGeometry getGeometry() {
+		if (geometry == null)
+			geometry = new ProtozoanGeometry();
+		if (!geometry.isValidFor(this))
+			geometry.update(this);
+		return geometry;
+	}
+
 	public Vector2 getDir() {
 		return dir;
 	}
@@ -0,0 +1,125 @@
+package protoevo.biology;
+
+import protoevo.utils.CachedMath;
+import protoevo.utils.Vector2;
+
+/**
+ * The parts of a protozoan's shape that only change when it updates, worked out once per tick after it has
+ * thought and grown its spikes, for all of its interactions to share. Everything is stored as an offset from the protozoan's centre, as the
+ * physics moves the protozoan between its thinking and its next interactions.
+ */
+public class ProtozoanGeometry
+{
+	private float radius = Float.NaN;
+	private float dirX, dirY, dirAngle;
+	// Positions of the contact sensors
+	private float[] sensorX = new float[0], sensorY = new float[0];
+	// Ends of the spikes, and their lengths after the brain's attack factor
+	private float[] spikeX = new float[0], spikeY = new float[0], spikeLength = new float[0];
+	// Retina rays in tank space, not yet scaled to the interaction range, for each cell's rays in turn
+	private float[] rayX = new float[0], rayY = new float[0];
+	private final Vector2 tmp = new Vector2(0, 0);
+
+	/**
+	 * Recomputes everything from the protozoan's current direction, radius and brain outputs.
+	 */
+	public void update(Protozoan protozoan) {
+		radius = protozoan.getRadius();
+		Vector2 dir = protozoan.getDir();
+		dirX = dir.getX();
+		dirY = dir.getY();
+		dirAngle = dir.angle();
+
+		Protozoan.ContactSensor[] sensors = protozoan.getContactSensors();
+		if (sensorX.length != sensors.length) {
+			sensorX = new float[sensors.length];
+			sensorY = new float[sensors.length];
+		}
+		for (int i = 0; i < sensors.length; i++) {
+			tmp.set(dir).turn(sensors[i].angle).setLength(1.01f * radius);
+			sensorX[i] = tmp.getX();
+			sensorY[i] = tmp.getY();
+		}
+
+		Protozoan.Spike[] spikes = protozoan.getSpikes();
+		if (spikeX.length != spikes.length) {
+			spikeX = new float[spikes.length];
+			spikeY = new float[spikes.length];
+			spikeLength = new float[spikes.length];
+		}
+		float dirLen = (float) Math.sqrt(dirX*dirX + dirY*dirY);
+		for (int i = 0; i < spikes.length; i++) {
+			spikeLength[i] = protozoan.computeSpikeLength(spikes[i]);
+			// The spike points out from the edge of the cell, so its end is (radius + length) along its direction
+			float c = CachedMath.cos(spikes[i].angle), s = CachedMath.sin(spikes[i].angle);
+			float reach = (radius + spikeLength[i]) / dirLen;
+			spikeX[i] = (dirX*c - dirY*s) * reach;
+			spikeY[i] = (dirX*s + dirY*c) * reach;
+		}
+
+		int nRays = protozoan.getRetina().numberOfRays();
+		if (rayX.length != nRays) {
+			rayX = new float[nRays];
+			rayY = new float[nRays];
+		}
+		int k = 0;
+		for (Retina.Cell cell : protozoan.getRetina().getCells()) {
+			for (Vector2 ray : cell.getRays()) {
+				tmp.set(ray).turn(dirAngle);
+				rayX[k] = tmp.getX();
+				rayY[k] = tmp.getY();
+				k++;
+			}
+		}
+	}
+
+	/**
+	 * @return whether the geometry was computed for a protozoan of this radius and retina size
+	 */
+	public boolean isValidFor(Protozoan protozoan) {
+		return radius == protozoan.getRadius() && rayX.length == protozoan.getRetina().numberOfRays();
+	}
+
+	public float getDirX() {
+		return dirX;
+	}
+
+	public float getDirY() {
+		return dirY;
+	}
+
+	public float getDirAngle() {
+		return dirAngle;
+	}
+
+	public float getSensorX(int i) {
+		return sensorX[i];
+	}
+
+	public float getSensorY(int i) {
+		return sensorY[i];
+	}
+
+	public float getSpikeX(int i) {
+		return spikeX[i];
+	}
+
+	public float getSpikeY(int i) {
+		return spikeY[i];
+	}
+
+	public float getSpikeLength(int i) {
+		return spikeLength[i];
+	}
+
+	/**
+	 * @param k index of the ray, counting through each retina cell's rays in turn
+	 */
+	public float getRayX(int k) {
+		return rayX[k];
+	}
+
+	public float getRayY(int k) {
+		return rayY[k];
+	}
+}
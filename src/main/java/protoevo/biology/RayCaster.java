@@ -0,0 +1,257 @@
+package protoevo.biology;
+
+import protoevo.core.Collidable;
+import protoevo.env.Rock;
+import protoevo.env.RockEdgeBVH;
+import protoevo.utils.Vector2;
+
+import java.util.Arrays;
+
+/**
+ * Casts a protozoan's retina rays once per tick against everything in view.
+ * The rays are laid out at the start of the tick and sorted into angular bins around the protozoan.
+ * Cells in view are gathered as candidates, each covering the bins of the angles at which a ray could hit it.
+ * The rocks are traced first, as they often block the view of the cells behind them. The candidates are
+ * then tested nearest first, against only the rays in their bins, and a ray skips any candidate that
+ * could not be closer than the hit it already has.
+ */
+public class RayCaster
+{
+	private static final int N_BINS = 64;
+	private static final float BIN_WIDTH = (float) (2 * Math.PI / N_BINS);
+	private static final float PI = (float) Math.PI;
+	// Widens the angles a candidate covers to allow for the error of the fast arctangent,
+	// and shrinks how near it can be hit to allow for rounding
+	private static final float ANGLE_MARGIN = 1e-3f;
+	private static final float DISTANCE_MARGIN = 1e-4f;
+
+	private int nRays;
+	private Retina.Cell[] rayCells = new Retina.Cell[0];
+	private int[] rayIndices = new int[0];
+	private float[] rayX = new float[0], rayY = new float[0];
+	private float[] rayEndX = new float[0], rayEndY = new float[0];
+	private float[] rayAngles = new float[0];
+	private final int[] binStarts = new int[N_BINS + 1], binFill = new int[N_BINS];
+	private int[] binRays = new int[0];
+
+	private int nCandidates;
+	private Cell[] candidates = new Cell[16];
+	private float[] candidateAngles = new float[16], candidateHalfWidths = new float[16];
+	// Nearest possible squared hit distance in the high bits, candidate index in the low bits
+	private long[] order = new long[16];
+
+	private float dirX, dirY;
+	private final Vector2 start = new Vector2(0, 0), end = new Vector2(0, 0);
+	private final Collidable.Collision collision = new Collidable.Collision();
+
+	/**
+	 * Lays out the rays for this tick and clears the candidates.
+	 * @param protozoan the protozoan doing the looking
+	 * @param retina the protozoan's retina, which should have been reset
+	 * @param range length of the rays
+	 * @param stride cast only every stride-th ray of each retina cell, starting from the first
+	 */
+	public void begin(Protozoan protozoan, Retina retina, float range, int stride) {
+		start.set(protozoan.getX(), protozoan.getY());
+		ProtozoanGeometry geometry = protozoan.getGeometry();
+		dirX = geometry.getDirX();
+		dirY = geometry.getDirY();
+		nCandidates = 0;
+
+		int n = 0;
+		for (Retina.Cell cell : retina.getCells())
+			n += (cell.getRays().length + stride - 1) / stride;
+		if (rayCells.length < n) {
+			rayCells = new Retina.Cell[n];
+			rayIndices = new int[n];
+			rayX = new float[n];
+			rayY = new float[n];
+			rayEndX = new float[n];
+			rayEndY = new float[n];
+			rayAngles = new float[n];
+			binRays = new int[n];
+		}
+		nRays = n;
+
+		int k = 0, first = 0;
+		for (Retina.Cell cell : retina.getCells()) {
+			int cellRays = cell.getRays().length;
+			for (int i = 0; i < cellRays; i += stride) {
+				end.set(geometry.getRayX(first + i), geometry.getRayY(first + i))
+						.setLength(range)
+						.translate(start);
+				float ux = end.getX() - start.getX(), uy = end.getY() - start.getY();
+				float len = (float) Math.sqrt(ux*ux + uy*uy);
+				if (len != 0) {
+					ux /= len;
+					uy /= len;
+				}
+				rayCells[k] = cell;
+				rayIndices[k] = i;
+				rayX[k] = ux;
+				rayY[k] = uy;
+				rayEndX[k] = end.getX();
+				rayEndY[k] = end.getY();
+				rayAngles[k] = relativeAngle(ux, uy);
+				k++;
+			}
+			first += cellRays;
+		}
+
+		Arrays.fill(binStarts, 0);
+		for (k = 0; k < nRays; k++)
+			binStarts[binOf(rayAngles[k]) + 1]++;
+		for (int b = 0; b < N_BINS; b++)
+			binStarts[b + 1] += binStarts[b];
+		System.arraycopy(binStarts, 0, binFill, 0, N_BINS);
+		for (k = 0; k < nRays; k++)
+			binRays[binFill[binOf(rayAngles[k])]++] = k;
+	}
+
+	/**
+	 * Adds a cell that may be seen this tick.
+	 */
+	public void addCandidate(Cell other) {
+		if (nCandidates == candidates.length) {
+			int capacity = 2 * nCandidates;
+			candidates = Arrays.copyOf(candidates, capacity);
+			candidateAngles = Arrays.copyOf(candidateAngles, capacity);
+			candidateHalfWidths = Arrays.copyOf(candidateHalfWidths, capacity);
+			order = Arrays.copyOf(order, capacity);
+		}
+		float dx = other.getX() - start.getX(), dy = other.getY() - start.getY();
+		float d2 = dx*dx + dy*dy;
+		float r = other.getRadius();
+		float nearSq = 0, halfWidth = PI;
+		if (d2 > r*r) {
+			// A ray hits the far side of a cell, which is never nearer than the point where a tangent touches it
+			nearSq = (d2 - r*r) * (1 - DISTANCE_MARGIN);
+			// The tangent of the angle between the centre and a tangent ray, which is never less than the angle
+			halfWidth = Math.min(PI, r / (float) Math.sqrt(d2 - r*r) + ANGLE_MARGIN);
+		}
+		int idx = nCandidates++;
+		candidates[idx] = other;
+		candidateAngles[idx] = relativeAngle(dx, dy);
+		candidateHalfWidths[idx] = halfWidth;
+		order[idx] = ((long) Float.floatToIntBits(nearSq) << 32) | idx;
+	}
+
+	/**
+	 * Casts the rays against the rocks and the candidates, and records the nearest hit of each ray in the retina.
+	 * @param rockEdges the tank's rock edges, or null to skip the rocks
+	 */
+	public void cast(RockEdgeBVH rockEdges) {
+		if (rockEdges != null) {
+			for (int k = 0; k < nRays; k++) {
+				end.set(rayEndX[k], rayEndY[k]);
+				Rock rock = rockEdges.rayCollision(start, end, collision);
+				if (rock != null)
+					record(k, rock, collision.point.squareDistanceTo(start));
+			}
+		}
+
+		// The squared distances are not negative, so their bits sort in the same order as the values
+		Arrays.sort(order, 0, nCandidates);
+		for (int n = 0; n < nCandidates; n++) {
+			int idx = (int) order[n];
+			float nearSq = Float.intBitsToFloat((int) (order[n] >>> 32));
+			float angle = candidateAngles[idx], halfWidth = candidateHalfWidths[idx];
+
+			int bLo = 0, bHi = N_BINS - 1;
+			if (halfWidth < PI) {
+				bLo = (int) Math.floor((angle - halfWidth + PI) / BIN_WIDTH);
+				bHi = Math.min(bLo + N_BINS - 1, (int) Math.floor((angle + halfWidth + PI) / BIN_WIDTH));
+			}
+			for (int b = bLo; b <= bHi; b++) {
+				int bin = Math.floorMod(b, N_BINS);
+				for (int m = binStarts[bin]; m < binStarts[bin + 1]; m++) {
+					int k = binRays[m];
+					if (Math.abs(wrap(rayAngles[k] - angle)) > halfWidth)
+						continue;
+					if (rayCells[k].collisionSqLen(rayIndices[k]) <= nearSq)
+						continue;
+					Cell other = candidates[idx];
+					float sqLen = hitSqLen(k, other);
+					if (sqLen < Float.MAX_VALUE)
+						record(k, other, sqLen);
+				}
+			}
+		}
+		Arrays.fill(candidates, 0, nCandidates, null);
+		nCandidates = 0;
+	}
+
+	private void record(int k, Collidable o, float sqLen) {
+		Retina.Cell cell = rayCells[k];
+		if (sqLen < cell.collisionSqLen(rayIndices[k]))
+			cell.set(rayIndices[k], o.getRGB(), sqLen);
+	}
+
+	/**
+	 * Intersects a ray with a cell in the same way as {@link protoevo.core.Particle#rayCollisions}.
+	 * @return the squared distance to the hit, or Float.MAX_VALUE if the ray misses
+	 */
+	private float hitSqLen(int k, Cell other) {
+		float rx = rayX[k], ry = rayY[k];
+		float px = other.getX() - start.getX(), py = other.getY() - start.getY();
+		float r = other.getRadius();
+
+		float a = rx*rx + ry*ry;
+		float b = -2 * (rx*px + ry*py);
+		float c = px*px + py*py - r * r;
+
+		float d = b*b - 4*a*c;
+		if (d == 0)
+			return Float.MAX_VALUE;
+
+		float l1 = (float) ((-b + Math.sqrt(d)) / (2*a));
+		float l2 = (float) ((-b - Math.sqrt(d)) / (2*a));
+		float l;
+		if (l1 > 0)
+			l = l1;
+		else if (l2 > 0)
+			l = l2;
+		else
+			return Float.MAX_VALUE;
+
+		float hx = start.getX() + rx * l - start.getX();
+		float hy = start.getY() + ry * l - start.getY();
+		return hx*hx + hy*hy;
+	}
+
+	/**
+	 * @return the angle of (x, y) relative to the protozoan's direction, in [-pi, pi]
+	 */
+	private float relativeAngle(float x, float y) {
+		return atan2(dirX*y - dirY*x, dirX*x + dirY*y);
+	}
+
+	/**
+	 * Polynomial approximation of the arctangent, accurate to about 1e-5 radians.
+	 */
+	static float atan2(float y, float x) {
+		float ax = Math.abs(x), ay = Math.abs(y);
+		if (ax == 0 && ay == 0)
+			return 0;
+		float z = ax >= ay ? ay / ax : ax / ay;
+		float z2 = z*z;
+		float a = z * (0.9998660f + z2 * (-0.3302995f + z2 * (0.1801410f + z2 * (-0.0851330f + z2 * 0.0208351f))));
+		if (ay > ax)
+			a = PI / 2 - a;
+		if (x < 0)
+			a = PI - a;
+		return y < 0 ? -a : a;
+	}
+
+	private static int binOf(float angle) {
+		return Math.max(0, Math.min(N_BINS - 1, (int) ((angle + PI) / BIN_WIDTH)));
+	}
+
+	private static float wrap(float angle) {
+		if (angle > PI)
+			return angle - 2 * PI;
+		if (angle < -PI)
+			return angle + 2 * PI;
+		return angle;
+	}
+}
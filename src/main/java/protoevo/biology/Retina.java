@@ -2,6 +2,7 @@ package protoevo.biology;
 
 import com.google.common.collect.Iterators;
 import protoevo.core.Settings;
+import protoevo.utils.Colours;
 import protoevo.utils.Vector2;
 
 import java.awt.Color;
@@ -19,7 +20,7 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 	public static class Cell implements Serializable {
 		private static final long serialVersionUID = 1L;
 		private final float angle;
-		private final Color[] colours;
+		private final int[] colours;
 		private final float[] weights, lengths;
 		private final Vector2[] rays;
 		private final RetinaConstructionProject constructionProject;
@@ -31,7 +32,7 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 			if (cellFov > Settings.minRetinaRayAngle)
 				nRays = (int) (cellFov / Settings.minRetinaRayAngle);
 
-			colours = new Color[nRays];
+			colours = new int[nRays];
 			weights = new float[nRays];
 			lengths = new float[nRays];
 			rays = new Vector2[nRays];
@@ -45,51 +46,77 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 		}
 
 		public void reset() {
-			Arrays.fill(colours, null);
+			Arrays.fill(colours, 0);
 			Arrays.fill(weights, 0);
 			Arrays.fill(lengths, Float.MAX_VALUE);
 		}
 
-		public void set(int idx, Color c, float sqLen) {
-			colours[idx] = c;
+		public void set(int idx, int rgb, float sqLen) {
+			set(idx, rgb, sqLen, 1f);
+		}
+
+		/**
+		 * @param weight how much of the ray's view the colour fills
+		 */
+		public void set(int idx, int rgb, float sqLen, float weight) {
+			colours[idx] = rgb;
 			lengths[idx] = sqLen;
-			weights[idx] = 1f;
+			weights[idx] = weight;
 		}
 
 		public Vector2[] getRays() {
 			return rays;
 		}
 
-		public Color getColour() {
+		/**
+		 * Writes the average colour seen by the rays that hit something, weighted by how much
+		 * of their view it fills and by the retina's construction progress, with each channel in [0, 255].
+		 * @param rgb array to write the red, green and blue channels to
+		 * @return whether anything was seen
+		 */
+		public boolean getColour(float[] rgb) {
 			float r = 0;
 			float g = 0;
 			float b = 0;
 			int nEntities = 0;
 			float constructionProgress = constructionProject.getProgress();
 			for (int i = 0; i < colours.length; i++) {
-				if (colours[i] != null) {
+				if (rayIntersectedEntity(i)) {
 					float w = constructionProgress * weights[i];
-					r += w * colours[i].getRed();
-					g += w * colours[i].getGreen();
-					b += w * colours[i].getBlue();
+					r += w * Colours.red(colours[i]);
+					g += w * Colours.green(colours[i]);
+					b += w * Colours.blue(colours[i]);
 					nEntities++;
 				}
 			}
 
-			if (nEntities == 0)
-				return new Color(0, 0, 0);
+			if (nEntities == 0) {
+				rgb[0] = rgb[1] = rgb[2] = 0;
+				return false;
+			}
+			rgb[0] = r / nEntities;
+			rgb[1] = g / nEntities;
+			rgb[2] = b / nEntities;
+			return true;
+		}
 
+		/**
+		 * The colour seen by the cell for drawing, as the simulation uses {@link #getColour(float[])}.
+		 */
+		public Color getColour() {
+			float[] rgb = new float[3];
+			getColour(rgb);
 			return new Color(
-					(int) (r / nEntities),
-					(int) (g / nEntities),
-					(int) (b / nEntities),
-					(int) (255 * constructionProgress)
+					(int) rgb[0],
+					(int) rgb[1],
+					(int) rgb[2],
+					(int) (255 * constructionProject.getProgress())
 			);
 		}
 
 		public boolean anythingVisible() {
-			for (Color c : colours)
-				if (c != null)
+			for (int i = 0; i < lengths.length; i++)
+				if (rayIntersectedEntity(i))
 					return true;
 			return false;
 		}
@@ -99,7 +126,7 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 		}
 
 		public boolean rayIntersectedEntity(int rayIndex) {
-			return colours[rayIndex] != null;
+			return lengths[rayIndex] < Float.MAX_VALUE;
 		}
 
 		public float collisionSqLen(int rayIndex) {
@@ -147,6 +174,7 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 	
 	private final Cell[] cells;
 	private final float fov;
+	private final int numberOfRays;
 	private final RetinaConstructionProject constructionProject;
 	private float health;
 
@@ -160,6 +188,10 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 			float angle = -cellFov / 2 + fov * (numCells - 2 * i) / (2 * numCells);
 			cells[i] = new Cell(angle, cellFov, constructionProject);
 		}
+		int rays = 0;
+		for (Cell cell : cells)
+			rays += cell.getRays().length;
+		numberOfRays = rays;
 		health = 1f;
 	}
 
@@ -187,6 +219,8 @@ public class Retina implements Iterable<Retina.Cell>, Serializable
 
 	public int numberOfCells() { return cells.length; }
 
+	public int numberOfRays() { return numberOfRays; }
+
 	public Cell[] getCells() {
 		return cells;
 	}
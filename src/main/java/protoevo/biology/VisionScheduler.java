@@ -0,0 +1,179 @@
+package protoevo.biology;
+
+import protoevo.core.Settings;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how much looking each protozoan does in a tick, and counts the results.
+ * <ul>
+ *     <li>Protozoa refresh their retinas every {@link Settings#visionRefreshInterval} ticks,
+ *     staggered so that about the same number refresh in each tick, and hold what they last saw in between.</li>
+ *     <li>A due refresh is skipped, reusing the last result, when neither the protozoan nor anything
+ *     in its view can have moved more than {@link Settings#visionReuseDistance} since it last looked,
+ *     and the same cells are in view.</li>
+ *     <li>A protozoan whose nearest cell in view is further than {@link Settings#visionLODDistance}
+ *     casts every other ray of each retina cell, in the rays vision mode.</li>
+ * </ul>
+ * Each knob is off at its default, so that every protozoan casts all of its rays every tick.
+ */
+public class VisionScheduler {
+
+    public static final int HOLD = 0, REUSE = -1;
+    // The depth buffer has a bin for every ray however many are cast, so only the ray caster thins its rays
+    private static final boolean castsRays = !"depth_buffer".equals(Settings.visionMode);
+
+    /**
+     * Per protozoan record of what it saw when it last looked, and what is in its view this tick.
+     */
+    public static class Viewer {
+        private final int phase;
+        private long lastCastTick = -1;
+        private float lastX, lastY, lastDirX, lastDirY, lastMaxSpeed;
+        private int lastInView;
+        private long lastViewHash;
+        // Gathered while visiting the cells in view, for planning the next tick
+        private int inView;
+        // Sum of a hash of each cell in view, so that it does not depend on the order they are visited in
+        private long viewHash;
+        private float nearestSqDist = Float.MAX_VALUE, maxSpeed;
+
+        public Viewer(int phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * Records a cell in view this tick.
+         */
+        public void observe(Cell other, float sqDist) {
+            inView++;
+            viewHash += mix(other.getBirthIndex());
+            nearestSqDist = Math.min(nearestSqDist, sqDist);
+            maxSpeed = Math.max(maxSpeed, other.getSpeed());
+        }
+    }
+
+    private long tick;
+    private final LongAdder casts = new LongAdder(), reducedCasts = new LongAdder();
+    private final LongAdder reused = new LongAdder(), held = new LongAdder();
+    private final LongAdder raysCast = new LongAdder(), rayHits = new LongAdder();
+
+    /**
+     * Mixes the bits of a birth index, so that the sum over a set of cells is unlikely to match that over another.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Creates the viewer for a protozoan, with a phase from its birth index so that runs with the same seed
+     * refresh the same protozoa in the same ticks.
+     */
+    public Viewer createViewer(Protozoan protozoan) {
+        return new Viewer((int) Math.floorMod(protozoan.getBirthIndex(), (long) Math.max(1, Settings.visionRefreshInterval)));
+    }
+
+    public void nextTick() {
+        tick++;
+    }
+
+    /**
+     * Plans the protozoan's looking for this tick, and clears what the viewer gathered in the last.
+     * @return {@link #HOLD} or {@link #REUSE} to keep the retina as it is, or else the stride between the rays to cast
+     */
+    public int plan(Protozoan protozoan, Viewer viewer, float range) {
+        int inView = viewer.inView;
+        long viewHash = viewer.viewHash;
+        float nearestSqDist = viewer.nearestSqDist, maxSpeed = viewer.maxSpeed;
+        viewer.inView = 0;
+        viewer.viewHash = 0;
+        viewer.nearestSqDist = Float.MAX_VALUE;
+        viewer.maxSpeed = 0;
+
+        if (viewer.lastCastTick >= 0) {
+            int interval = Math.max(1, Settings.visionRefreshInterval);
+            if ((tick + viewer.phase) % interval != 0) {
+                held.increment();
+                return HOLD;
+            }
+            if (Settings.visionReuseDistance > 0
+                    && inView == viewer.lastInView && viewHash == viewer.lastViewHash) {
+                float elapsed = (tick - viewer.lastCastTick) * Settings.simulationUpdateDelta;
+                float dx = protozoan.getX() - viewer.lastX, dy = protozoan.getY() - viewer.lastY;
+                float dirX = protozoan.getDir().getX(), dirY = protozoan.getDir().getY();
+                float dirLen = (float) Math.sqrt(dirX*dirX + dirY*dirY);
+                // How far the tips of the rays have swung, by the chord between the directions
+                float swingX = dirX / dirLen - viewer.lastDirX, swingY = dirY / dirLen - viewer.lastDirY;
+                float reuse = Settings.visionReuseDistance;
+                if (dx*dx + dy*dy < reuse*reuse
+                        && range * range * (swingX*swingX + swingY*swingY) < reuse*reuse
+                        && Math.max(maxSpeed, viewer.lastMaxSpeed) * elapsed < reuse) {
+                    reused.increment();
+                    return REUSE;
+                }
+            }
+        }
+
+        viewer.lastCastTick = tick;
+        viewer.lastX = protozoan.getX();
+        viewer.lastY = protozoan.getY();
+        float dirX = protozoan.getDir().getX(), dirY = protozoan.getDir().getY();
+        float dirLen = (float) Math.sqrt(dirX*dirX + dirY*dirY);
+        viewer.lastDirX = dirX / dirLen;
+        viewer.lastDirY = dirY / dirLen;
+        viewer.lastInView = inView;
+        viewer.lastViewHash = viewHash;
+        viewer.lastMaxSpeed = maxSpeed;
+
+        casts.increment();
+        float lod = Settings.visionLODDistance;
+        if (castsRays && lod > 0 && nearestSqDist > lod * lod) {
+            reducedCasts.increment();
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Counts the rays cast by a protozoan and how many of them hit something.
+     * @param stride the stride between the rays that were cast
+     */
+    public void recordCast(Retina retina, int stride) {
+        int cast = 0, hits = 0;
+        for (Retina.Cell cell : retina.getCells()) {
+            for (int i = 0; i < cell.getRays().length; i += stride) {
+                cast++;
+                if (cell.rayIntersectedEntity(i))
+                    hits++;
+            }
+        }
+        raysCast.add(cast);
+        rayHits.add(hits);
+    }
+
+    public long getCasts() {
+        return casts.sum();
+    }
+
+    public long getReducedCasts() {
+        return reducedCasts.sum();
+    }
+
+    public long getReused() {
+        return reused.sum();
+    }
+
+    public long getHeld() {
+        return held.sum();
+    }
+
+    public long getRaysCast() {
+        return raysCast.sum();
+    }
+
+    public long getRayHits() {
+        return rayHits.sum();
+    }
+}
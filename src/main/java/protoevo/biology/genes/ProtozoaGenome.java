@@ -137,7 +137,7 @@ public class ProtozoaGenome implements Serializable
             return Brain.EMPTY;
 
         try {
-            NeuralNetwork nn = networkGenome.phenotype();
+            NeuralNetwork nn = networkGenome.phenotype(NNBrain.CONSTANT_INPUTS);
             int expInpSize = expectedNetworkInputSize(retina().numberOfCells());
             if (nn.getInputSize() < expInpSize)
                 throw new MiscarriageException();
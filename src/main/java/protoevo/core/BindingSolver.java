@@ -0,0 +1,151 @@
+package protoevo.core;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Solves the distance constraints between bound particles, such as the cells of a multicellular structure.
+ * The constraints are gathered once per tick, keeping a binding made from both ends only once, and are
+ * then graph-coloured so that no two constraints of the same colour share a particle.
+ * Each iteration solves the colours in turn, and the constraints of a colour in parallel, so an iteration
+ * is a Gauss-Seidel sweep whose result does not depend on how the constraints are split between threads.
+ */
+public class BindingSolver {
+
+    // Colours smaller than this are solved on the calling thread
+    private static final int PARALLEL_THRESHOLD = 256;
+    // Constraints of a particle with too many bindings to colour share the last colour, which is solved serially
+    private static final int SERIAL_COLOUR = 63;
+
+    private KinematicStore kinematics;
+    private int nConstraints, nColours;
+    private long[] keys = new long[64];
+    private int[] colours = new int[64];
+    private int[] a = new int[64], b = new int[64];
+    private float[] targetDist = new float[64], shareA = new float[64];
+    private int[] colourStarts = new int[SERIAL_COLOUR + 2];
+    private long[] usedColours = new long[0];
+
+    /**
+     * Starts gathering the constraints for a tick.
+     * @param kinematics the store holding the bound particles
+     */
+    public void clear(KinematicStore kinematics) {
+        this.kinematics = kinematics;
+        nConstraints = 0;
+        nColours = 0;
+    }
+
+    /**
+     * Adds a binding between two particles. Particles that are not in the store are ignored.
+     */
+    public void add(Particle p, Particle q) {
+        if (p == q || p.getStore() != kinematics || q.getStore() != kinematics)
+            return;
+        int i = p.getSlot(), j = q.getSlot();
+        if (nConstraints == keys.length)
+            keys = Arrays.copyOf(keys, 2 * nConstraints);
+        keys[nConstraints++] = i < j ? ((long) i << 32) | j : ((long) j << 32) | i;
+    }
+
+    /**
+     * Removes duplicate bindings, colours the constraints, and lays them out by colour.
+     * Both ends of every binding are woken, as the solver will move them.
+     */
+    public void prepare() {
+        Arrays.sort(keys, 0, nConstraints);
+        int n = 0;
+        for (int k = 0; k < nConstraints; k++)
+            if (n == 0 || keys[k] != keys[n - 1])
+                keys[n++] = keys[k];
+        nConstraints = n;
+        if (a.length < n) {
+            int capacity = Math.max(n, 2 * a.length);
+            colours = new int[capacity];
+            a = new int[capacity];
+            b = new int[capacity];
+            targetDist = new float[capacity];
+            shareA = new float[capacity];
+        }
+        if (usedColours.length < kinematics.size())
+            usedColours = new long[kinematics.x.length];
+
+        // Greedy colouring in slot order, giving each constraint the lowest colour free at both ends
+        Arrays.fill(colourStarts, 0);
+        for (int k = 0; k < n; k++) {
+            int i = (int) (keys[k] >>> 32), j = (int) keys[k];
+            usedColours[i] = 0;
+            usedColours[j] = 0;
+        }
+        for (int k = 0; k < n; k++) {
+            int i = (int) (keys[k] >>> 32), j = (int) keys[k];
+            int colour = Math.min(SERIAL_COLOUR, Long.numberOfTrailingZeros(~(usedColours[i] | usedColours[j])));
+            usedColours[i] |= 1L << colour;
+            usedColours[j] |= 1L << colour;
+            colours[k] = colour;
+            colourStarts[colour + 1]++;
+            nColours = Math.max(nColours, colour + 1);
+        }
+        for (int c = 0; c <= SERIAL_COLOUR; c++)
+            colourStarts[c + 1] += colourStarts[c];
+
+        int[] offsets = Arrays.copyOf(colourStarts, SERIAL_COLOUR + 1);
+        for (int k = 0; k < n; k++) {
+            int i = (int) (keys[k] >>> 32), j = (int) keys[k];
+            int m = offsets[colours[k]]++;
+            a[m] = i;
+            b[m] = j;
+            float massA = kinematics.getParticle(i).getMass();
+            float massB = kinematics.getParticle(j).getMass();
+            shareA[m] = massB / (massA + massB);
+            targetDist[m] = 1.1f * (kinematics.radius[i] + kinematics.radius[j]);
+            kinematics.wake(i);
+            kinematics.wake(j);
+        }
+    }
+
+    /**
+     * Moves the bound particles towards their target separations.
+     * @param iterations number of sweeps over all the constraints
+     */
+    public void solve(int iterations) {
+        for (int it = 0; it < iterations; it++) {
+            for (int c = 0; c < nColours; c++) {
+                int start = colourStarts[c], end = colourStarts[c + 1];
+                if (c == SERIAL_COLOUR || end - start < PARALLEL_THRESHOLD) {
+                    for (int k = start; k < end; k++)
+                        solveConstraint(k);
+                } else {
+                    IntStream.range(start, end).parallel().forEach(this::solveConstraint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves both ends of the constraint, each by the share of the error weighted by the other's mass.
+     */
+    private void solveConstraint(int k) {
+        float[] x = kinematics.x, y = kinematics.y;
+        int i = a[k], j = b[k];
+        float axisX = x[i] - x[j];
+        float axisY = y[i] - y[j];
+        float dist = (float) Math.sqrt(axisX*axisX + axisY*axisY);
+        if (dist == 0)
+            return;
+        float s = (targetDist[k] - dist) / dist;
+        float si = shareA[k] * s, sj = (1 - shareA[k]) * s;
+        x[i] += axisX * si;
+        y[i] += axisY * si;
+        x[j] -= axisX * sj;
+        y[j] -= axisY * sj;
+    }
+
+    public int getNumConstraints() {
+        return nConstraints;
+    }
+
+    public int getNumColours() {
+        return nColours;
+    }
+}
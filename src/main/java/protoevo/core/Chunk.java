@@ -1,7 +1,6 @@
 package protoevo.core;
 
 import protoevo.biology.Cell;
-import com.google.common.collect.Iterators;
 import protoevo.env.Rock;
 import protoevo.utils.Vector2;
 
@@ -12,7 +11,10 @@ public class Chunk implements Serializable {
 
     public static final long serialVersionUID = 4697424153087580763L;
 
-    private final List<Cell> entities;
+    // The chunk's cells are cells[start, start + nCells), with room for capacity of them. After a rebuild
+    // the array is the chunk manager's chunk-sorted array, shared with the other chunks.
+    private Cell[] cells;
+    private int start, nCells, capacity;
     private final List<Rock> rocks;
     private final int x;
     private final int y;
@@ -23,7 +25,8 @@ public class Chunk implements Serializable {
         this.y = y;
         this.chunkManager = chunkManager;
 
-        entities = new LinkedList<>();
+        cells = new Cell[4];
+        capacity = cells.length;
         rocks = new ArrayList<>();
     }
 
@@ -36,11 +39,49 @@ public class Chunk implements Serializable {
     }
 
     public Collection<Cell> getCells() {
-        return entities;
+        return Arrays.asList(cells).subList(start, start + nCells);
     }
 
-    public void addEntity(Cell e) {
-        entities.add(e);
+    public int getNumCells() {
+        return nCells;
+    }
+
+    public Cell getCell(int idx) {
+        return cells[start + idx];
+    }
+
+    /**
+     * Adds a cell, first moving the cells into an array of this chunk's own if there is no room for it
+     * in its range of the shared array.
+     * @param e the cell to add
+     * @return the index of the cell in this chunk
+     */
+    public int addCell(Cell e) {
+        if (nCells == capacity) {
+            Cell[] own = new Cell[Math.max(4, 2 * nCells)];
+            System.arraycopy(cells, start, own, 0, nCells);
+            cells = own;
+            start = 0;
+            capacity = own.length;
+        }
+        cells[start + nCells] = e;
+        return nCells++;
+    }
+
+    /**
+     * Removes the cell at the given index by moving the last cell into its place.
+     * @param idx index of the cell to remove
+     * @return the cell that now occupies the index, or null if it was the last
+     */
+    public Cell removeCell(int idx) {
+        int last = --nCells;
+        Cell moved = null;
+        if (idx != last) {
+            moved = cells[start + last];
+            cells[start + idx] = moved;
+        }
+        cells[start + last] = null;
+        return moved;
     }
 
     public void addRock(Rock rock) {
@@ -60,12 +101,36 @@ public class Chunk implements Serializable {
         return false;
     }
 
+    /**
+     * Makes this chunk's cells a range of a chunk-sorted array, which the chunk then edits in place.
+     * @param sorted cells sorted by chunk
+     * @param from start of this chunk's range (inclusive)
+     * @param to end of this chunk's range (exclusive)
+     */
+    void setRange(Cell[] sorted, int from, int to) {
+        cells = sorted;
+        start = from;
+        nCells = capacity = to - from;
+    }
+
     public void clear() {
-        entities.clear();
+        Arrays.fill(cells, start, start + nCells, null);
+        nCells = 0;
+    }
+
+    public <S> void forEachCell(S source, SpatialIndex.Visitor<S, ? super Cell> visitor, float delta) {
+        for (int i = start; i < start + nCells; i++)
+            visitor.visit(source, cells[i], delta);
+    }
+
+    public <S> void forEachRock(S source, SpatialIndex.Visitor<S, ? super Rock> visitor, float delta) {
+        for (int i = 0; i < rocks.size(); i++)
+            visitor.visit(source, rocks.get(i), delta);
     }
 
-    public Iterator<Collidable> getCollidables() {
-        return Iterators.concat(entities.iterator(), rocks.iterator());
+    public <S> void forEachCollidable(S source, SpatialIndex.Visitor<S, ? super Collidable> visitor, float delta) {
+        forEachCell(source, visitor, delta);
+        forEachRock(source, visitor, delta);
     }
 
     public Collection<Rock> getRocks() {
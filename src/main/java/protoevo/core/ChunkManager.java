@@ -1,13 +1,13 @@
 package protoevo.core;
 
 import protoevo.biology.Cell;
-import com.google.common.collect.Iterators;
 import protoevo.env.Rock;
 import protoevo.utils.Vector2;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.function.Function;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class ChunkManager implements Serializable {
     public static final long serialVersionUID = 1L;
@@ -22,6 +22,18 @@ public class ChunkManager implements Serializable {
 
     private final Chunk[] chunks;
     private final List<Cell> entities = new ArrayList<>();
+    private final KinematicStore kinematics = new KinematicStore(1024);
+    private transient int[] newChunkIds, blockOffsets;
+    // The cells of every chunk after a rebuild, sorted by chunk, which the chunks keep ranges of
+    private transient Cell[] sortedCells;
+    private transient int nSortedCells;
+    private int updatesSinceReorder = 0;
+    private final List<Rock> rocks = new ArrayList<>();
+    private SpatialIndex index;
+    private int updatesSinceIndexSelection = 0;
+    private transient ContactList contacts;
+    private transient BindingSolver bindingSolver;
+    private transient SubstepScheduler substepScheduler;
 
     public ChunkManager(float xMin, float xMax,
                         float yMin, float yMax,
@@ -40,37 +52,91 @@ public class ChunkManager implements Serializable {
             for (int j = 0; j < nYChunks; j++)
                 this.chunks[toChunkID(i, j)] = new Chunk(i, j, this);
 
+        this.index = new UniformGridIndex(this);
     }
 
-    public <T extends Collidable> Iterator<T> broadScan(
-            Vector2 pos,
-            float range,
-            Function<Chunk, Iterator<T>> scanner
-    ) {
-        float x = pos.getX();
-        float y = pos.getY();
+    public <S> void forEachCollidableInRange(float x, float y, float range,
+                                             S source, SpatialIndex.Visitor<S, ? super Collidable> visitor, float delta) {
+        index.forEachCollidableInRange(x, y, range, source, visitor, delta);
+    }
 
-        int iMin = this.toChunkX(x - range);
-        int iMax = this.toChunkX(x + range);
-        int jMin = this.toChunkY(y - range);
-        int jMax = this.toChunkY(y + range);
+    public <S> void forEachCellInRange(float x, float y, float range,
+                                       S source, SpatialIndex.Visitor<S, ? super Cell> visitor, float delta) {
+        index.forEachCellInRange(x, y, range, source, visitor, delta);
+    }
 
-        List<Iterator<T>> iterators = new ArrayList<>((iMax - iMin + 1) * (jMax - jMin + 1));
-        for (int i = iMin; i <= iMax; i++) {
-            for (int j = jMin; j <= jMax; j++) {
-                Chunk chunk = getChunk(toChunkID(i, j));
-                iterators.add(scanner.apply(chunk));
-            }
-        }
-        return Iterators.concat(iterators.iterator());
+    public <S> void forEachRockInRange(float x, float y, float range,
+                                       S source, SpatialIndex.Visitor<S, ? super Rock> visitor, float delta) {
+        index.forEachRockInRange(x, y, range, source, visitor, delta);
+    }
+
+    /**
+     * Finds the pairs of cells that may interact or collide during the coming tick.
+     * @param delta the time step of the tick, used to bound how far cells can move towards each other
+     */
+    public void updateContacts(float delta) {
+        if (contacts == null)
+            contacts = new ContactList();
+        contacts.build(this, Settings.contactSkinFactor * Settings.maxParticleSpeed * delta);
     }
 
-    public Iterator<Collidable> broadCollisionDetection(Vector2 pos, float range) {
-        return broadScan(pos, range, Chunk::getCollidables);
+    public ContactList getContacts() {
+        if (contacts == null)
+            contacts = new ContactList();
+        return contacts;
     }
 
-    public Iterator<Cell> broadEntityDetection(Vector2 pos, float range) {
-        return broadScan(pos, range, chunk -> chunk.getCells().iterator());
+    public BindingSolver getBindingSolver() {
+        if (bindingSolver == null)
+            bindingSolver = new BindingSolver();
+        return bindingSolver;
+    }
+
+    public SubstepScheduler getSubstepScheduler() {
+        if (substepScheduler == null)
+            substepScheduler = new SubstepScheduler();
+        return substepScheduler;
+    }
+
+    /**
+     * Picks the spatial index named by the settings. In auto mode the choice is made from
+     * the number of cells sharing a chunk with the average cell: when the cells are packed into
+     * a few crowded chunks the quadtree adapts to the clusters, when the chunks are so sparse and
+     * small that long-range queries mostly walk empty chunks the hierarchical grid is used,
+     * and otherwise the chunks are queried directly.
+     */
+    private void selectIndex() {
+        String name = Settings.spatialIndex;
+        if (name == null || name.equals("auto")) {
+            long nCells = 0, nPairs = 0;
+            for (Chunk chunk : chunks) {
+                nCells += chunk.getNumCells();
+                nPairs += (long) chunk.getNumCells() * chunk.getNumCells();
+            }
+            float crowding = nCells > 0 ? nPairs / (float) nCells : 0;
+            if (crowding > Settings.spatialIndexCrowdedChunk)
+                name = "quadtree";
+            else if (crowding < Settings.spatialIndexSparseChunk
+                    && Settings.protozoaInteractRange > Settings.spatialIndexLongRangeChunks * chunkSize)
+                name = "hierarchical";
+            else
+                name = "uniform";
+        }
+        if (index != null && index.getName().equals(name))
+            return;
+
+        if (name.equals("quadtree"))
+            index = new LooseQuadtreeIndex(this);
+        else if (name.equals("hierarchical"))
+            index = new HierarchicalGridIndex(this, Settings.protozoaInteractRange);
+        else
+            index = new UniformGridIndex(this);
+        for (Rock rock : rocks)
+            index.addRock(rock);
+    }
+
+    public SpatialIndex getSpatialIndex() {
+        return index;
     }
 
     public int toChunkX(float tankX) {
@@ -115,7 +181,7 @@ public class ChunkManager implements Serializable {
     }
 
     public Chunk getChunk(Cell e) {
-        return getChunk(e.getPos());
+        return getChunk(toChunkID(e.getX(), e.getY()));
     }
 
     public Chunk getChunk(Vector2 pos) {
@@ -127,14 +193,30 @@ public class ChunkManager implements Serializable {
         return this.chunks[chunkID];
     }
 
-    public void allocateToChunk(Cell e) {
-        Chunk chunk = getChunk(e);
-        chunk.addEntity(e);
+    private void allocateToChunk(Particle p, int chunkID) {
+        int slot = p.getSlot();
+        kinematics.chunkId[slot] = chunkID;
+        kinematics.chunkSlot[slot] = chunks[chunkID].addCell((Cell) p);
+    }
+
+    private void removeFromChunk(Particle p) {
+        int slot = p.getSlot();
+        int chunkID = kinematics.chunkId[slot];
+        if (chunkID < 0)
+            return;
+        int chunkSlot = kinematics.chunkSlot[slot];
+        Particle moved = chunks[chunkID].removeCell(chunkSlot);
+        if (moved != null)
+            kinematics.chunkSlot[moved.getSlot()] = chunkSlot;
+        kinematics.chunkId[slot] = -1;
+        kinematics.chunkSlot[slot] = -1;
     }
 
     public void add(Cell e) {
-        if (e != null)
+        if (e != null) {
             entities.add(e);
+            kinematics.add(e);
+        }
     }
 
     public Chunk[] getChunks() {
@@ -145,13 +227,163 @@ public class ChunkManager implements Serializable {
         return entities;
     }
 
+    /**
+     * Removes dead cells and moves the cells that have changed chunk since the last update.
+     * Each cell remembers the chunk it was allocated to, so cells that stayed within their
+     * chunk are left untouched rather than every chunk being cleared and refilled.
+     * If too many cells have moved for that to pay off, the chunks are rebuilt from scratch.
+     * The spatial index is refreshed last, once the chunks are up to date.
+     */
     public void update() {
-        Arrays.stream(chunks).parallel().forEach(Chunk::clear);
-//        for (Chunk chunk : chunks)
-//            chunk.clear();
-
+        for (Cell e : entities)
+            if (e.isDead()) {
+                removeFromChunk(e);
+                kinematics.remove(e);
+            }
         entities.removeIf(Cell::isDead);
-        entities.forEach(this::allocateToChunk);
+
+        if (Settings.spatialReorderInterval > 0 && ++updatesSinceReorder >= Settings.spatialReorderInterval) {
+            reorderAlongZCurve();
+            updatesSinceReorder = 0;
+        }
+
+        int n = kinematics.size();
+        if (newChunkIds == null || newChunkIds.length < n)
+            newChunkIds = new int[kinematics.x.length];
+        int[] chunkIds = newChunkIds;
+        int[] currentChunkIds = kinematics.chunkId;
+        float[] xs = kinematics.x, ys = kinematics.y;
+        int nMoved = IntStream.range(0, n).parallel().map(i -> {
+            chunkIds[i] = toChunkID(xs[i], ys[i]);
+            return chunkIds[i] != currentChunkIds[i] ? 1 : 0;
+        }).sum();
+
+        if (nMoved > Settings.chunkRebuildThreshold * n)
+            rebuild(chunkIds, n);
+        else if (nMoved > 0)
+            for (int i = 0; i < n; i++)
+                if (chunkIds[i] != currentChunkIds[i]) {
+                    Particle p = kinematics.getParticle(i);
+                    removeFromChunk(p);
+                    allocateToChunk(p, chunkIds[i]);
+                }
+
+        if (updatesSinceIndexSelection++ % Settings.spatialIndexSelectionInterval == 0)
+            selectIndex();
+        index.update(kinematics);
+    }
+
+    /**
+     * Interleaves the bits of the chunk coordinates to give the position of the chunk
+     * along a Morton (Z-order) curve.
+     */
+    public static int mortonCode(int i, int j) {
+        return spreadBits(i) | (spreadBits(j) << 1);
+    }
+
+    private static int spreadBits(int v) {
+        v &= 0x0000ffff;
+        v = (v | (v << 8)) & 0x00ff00ff;
+        v = (v | (v << 4)) & 0x0f0f0f0f;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    /**
+     * Sorts the cells, and their kinematic slots, by the Morton code of the chunk they are in.
+     * Cells that are close in the tank then sit close in memory, and the parallel passes
+     * over the cells hand each worker a spatially coherent range.
+     */
+    public void reorderAlongZCurve() {
+        int n = kinematics.size();
+        float[] xs = kinematics.x, ys = kinematics.y;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long code = mortonCode(toChunkX(xs[i]), toChunkY(ys[i]));
+            keys[i] = (code << 32) | i;
+        }
+        Arrays.parallelSort(keys);
+
+        int[] order = new int[n];
+        for (int k = 0; k < n; k++)
+            order[k] = (int) keys[k];
+        reorder(order);
+    }
+
+    /**
+     * Reorders the cells and their kinematic slots, so that slot k holds the cell that was in slot order[k].
+     */
+    void reorder(int[] order) {
+        kinematics.reorder(order);
+        entities.clear();
+        for (int k = 0; k < order.length; k++)
+            entities.add((Cell) kinematics.getParticle(k));
+    }
+
+    /**
+     * Rebuilds every chunk with a parallel counting sort of the kinematic slots by chunk id.
+     * The slots are split into one block per worker: each block counts its cells per chunk,
+     * a prefix sum over the counts (chunk-major, block-minor) gives every block its write offsets,
+     * and the blocks then scatter their cells into one contiguous array, of which each chunk keeps its range.
+     * Cells keep their store order within a chunk, so the result does not depend on the number of workers.
+     * @param chunkIds chunk id of each slot
+     * @param n number of slots
+     */
+    private void rebuild(int[] chunkIds, int n) {
+        int nChunks = chunks.length;
+        int nBlocks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), n / 1024));
+        int blockSize = (n + nBlocks - 1) / nBlocks;
+
+        if (blockOffsets == null || blockOffsets.length < nBlocks * nChunks)
+            blockOffsets = new int[nBlocks * nChunks];
+        if (sortedCells == null || sortedCells.length < n) {
+            sortedCells = new Cell[kinematics.x.length];
+            nSortedCells = 0;
+        }
+        int[] offsets = blockOffsets;
+        Cell[] sorted = sortedCells;
+        Arrays.fill(offsets, 0, nBlocks * nChunks, 0);
+        // Let go of cells left over from a rebuild with more of them
+        if (nSortedCells > n)
+            Arrays.fill(sorted, n, nSortedCells, null);
+        nSortedCells = n;
+
+        IntStream.range(0, nBlocks).parallel().forEach(b -> {
+            int end = Math.min(n, (b + 1) * blockSize);
+            for (int i = b * blockSize; i < end; i++)
+                offsets[b * nChunks + chunkIds[i]]++;
+        });
+
+        int[] chunkStarts = new int[nChunks + 1];
+        int offset = 0;
+        for (int c = 0; c < nChunks; c++) {
+            chunkStarts[c] = offset;
+            for (int b = 0; b < nBlocks; b++) {
+                int count = offsets[b * nChunks + c];
+                offsets[b * nChunks + c] = offset;
+                offset += count;
+            }
+        }
+        chunkStarts[nChunks] = offset;
+
+        IntStream.range(0, nBlocks).parallel().forEach(b -> {
+            int end = Math.min(n, (b + 1) * blockSize);
+            for (int i = b * blockSize; i < end; i++) {
+                int c = chunkIds[i];
+                int k = offsets[b * nChunks + c]++;
+                sorted[k] = (Cell) kinematics.getParticle(i);
+                kinematics.chunkId[i] = c;
+                kinematics.chunkSlot[i] = k - chunkStarts[c];
+            }
+        });
+
+        for (int c = 0; c < nChunks; c++)
+            chunks[c].setRange(sorted, chunkStarts[c], chunkStarts[c + 1]);
+    }
+
+    public KinematicStore getKinematics() {
+        return kinematics;
     }
 
     public float getChunkSize() {
@@ -199,5 +431,7 @@ public class ChunkManager implements Serializable {
         for (int i = iMin; i <= iMax; i++)
             for (int j = jMin; j <= jMax; j++)
                 chunks[toChunkID(i, j)].addRock(rock);
+        rocks.add(rock);
+        index.addRock(rock);
     }
 }
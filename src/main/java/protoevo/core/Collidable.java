@@ -18,7 +18,17 @@ public abstract class Collidable {
     public abstract boolean rayIntersects(Vector2 start, Vector2 end);
     public abstract void rayCollisions(Vector2 start, Vector2 end, Collision[] collisions);
 
-    public abstract Color getColor();
+    /**
+     * @return the colour packed as by {@link protoevo.utils.Colours}
+     */
+    public abstract int getRGB();
+
+    /**
+     * The colour for drawing, as the simulation itself only uses {@link #getRGB()}.
+     */
+    public Color getColor() {
+        return new Color(getRGB());
+    }
 
     public abstract Vector2[] getBoundingBox();
 
@@ -0,0 +1,253 @@
+package protoevo.core;
+
+import protoevo.biology.Cell;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The pairs of cells that are close enough to matter this tick, found with one broad-phase
+ * query per cell rather than one per cell for every physics substep and interaction scan.
+ * Each pair is stored once, with the squared distance between the cells, and is found by
+ * whichever of the two cells has the larger reach. That query is widened by the largest cell radius,
+ * since the other cell's reach is measured to the edge of this one, so it is sure to include the other.
+ * A pair is kept if either cell interacts with the other, or if the cells may come into contact during the tick.
+ * Pairs are stored in chunk order, and every cell gets a list of the pairs it belongs to so that
+ * each side can visit its partners without any other cell's pairs being touched.
+ */
+public class ContactList {
+
+    /**
+     * Callback for visiting the partners of a cell.
+     * As with {@link SpatialIndex.Visitor}, the source and time step are passed through the call
+     * so that callers can use non-capturing lambdas.
+     */
+    @FunctionalInterface
+    public interface Visitor<S> {
+        void visit(S source, Cell other, float sqDist, float delta);
+    }
+
+    private KinematicStore kinematics;
+    private int nCells, nPairs;
+    private int[] pairA = new int[0], pairB = new int[0];
+    private float[] pairSqDist = new float[0];
+    private boolean[] pairContact = new boolean[0];
+    private int[] cellStarts = new int[1], cellPairs = new int[0];
+    private float[] reach = new float[0], queryRange = new float[0];
+    private float maxRadius;
+    private Block[] blocks = new Block[0];
+
+    /**
+     * Pairs found while scanning a run of chunks, kept separate per run so that the runs
+     * can be scanned in parallel and then concatenated in chunk order.
+     */
+    private static class Block {
+        int n, slot;
+        int[] a = new int[64], b = new int[64];
+        float[] sqDist = new float[64];
+        boolean[] contact = new boolean[64];
+        float skin;
+        ContactList list;
+
+        void add(int j, float sqDist, boolean contact) {
+            if (n == a.length) {
+                a = Arrays.copyOf(a, 2 * n);
+                b = Arrays.copyOf(b, 2 * n);
+                this.sqDist = Arrays.copyOf(this.sqDist, 2 * n);
+                this.contact = Arrays.copyOf(this.contact, 2 * n);
+            }
+            a[n] = slot;
+            b[n] = j;
+            this.sqDist[n] = sqDist;
+            this.contact[n] = contact;
+            n++;
+        }
+    }
+
+    /**
+     * Finds the pairs for this tick. Must be called after the chunk manager has been updated,
+     * and before any cell is added to or removed from the kinematic store.
+     * @param chunkManager the chunk manager holding the cells
+     * @param skin extra distance covering how far cells may move towards one another during the tick
+     */
+    public void build(ChunkManager chunkManager, float skin) {
+        kinematics = chunkManager.getKinematics();
+        nCells = kinematics.size();
+        if (reach.length < nCells) {
+            reach = new float[kinematics.x.length];
+            queryRange = new float[kinematics.x.length];
+            cellStarts = new int[kinematics.x.length + 1];
+        }
+
+        float[] radii = kinematics.radius;
+        IntStream.range(0, nCells).parallel().forEach(i ->
+                reach[i] = kinematics.getParticle(i).getInteractRange());
+        maxRadius = 0;
+        for (int i = 0; i < nCells; i++)
+            maxRadius = Math.max(maxRadius, radii[i]);
+        for (int i = 0; i < nCells; i++)
+            queryRange[i] = Math.max(reach[i], contactRange(radii[i], maxRadius, skin));
+
+        Chunk[] chunks = chunkManager.getChunks();
+        int nBlocks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), chunks.length / 64));
+        if (blocks.length < nBlocks) {
+            blocks = Arrays.copyOf(blocks, nBlocks);
+            for (int b = 0; b < nBlocks; b++)
+                if (blocks[b] == null)
+                    blocks[b] = new Block();
+        }
+        int chunksPerBlock = (chunks.length + nBlocks - 1) / nBlocks;
+        IntStream.range(0, nBlocks).parallel().forEach(b -> {
+            Block block = blocks[b];
+            block.n = 0;
+            block.skin = skin;
+            block.list = this;
+            int end = Math.min(chunks.length, (b + 1) * chunksPerBlock);
+            for (int c = b * chunksPerBlock; c < end; c++) {
+                Chunk chunk = chunks[c];
+                for (int k = 0; k < chunk.getNumCells(); k++) {
+                    Particle p = chunk.getCell(k);
+                    int i = p.getSlot();
+                    block.slot = i;
+                    chunkManager.forEachCellInRange(
+                            kinematics.x[i], kinematics.y[i], queryRange[i] + maxRadius, block, ContactList::consider, 0);
+                }
+            }
+        });
+
+        nPairs = 0;
+        for (int b = 0; b < nBlocks; b++)
+            nPairs += blocks[b].n;
+        if (pairA.length < nPairs) {
+            int capacity = Math.max(nPairs, 2 * pairA.length);
+            pairA = new int[capacity];
+            pairB = new int[capacity];
+            pairSqDist = new float[capacity];
+            pairContact = new boolean[capacity];
+            cellPairs = new int[2 * capacity];
+        }
+        int offset = 0;
+        for (int b = 0; b < nBlocks; b++) {
+            Block block = blocks[b];
+            System.arraycopy(block.a, 0, pairA, offset, block.n);
+            System.arraycopy(block.b, 0, pairB, offset, block.n);
+            System.arraycopy(block.sqDist, 0, pairSqDist, offset, block.n);
+            System.arraycopy(block.contact, 0, pairContact, offset, block.n);
+            offset += block.n;
+        }
+
+        Arrays.fill(cellStarts, 0, nCells + 1, 0);
+        for (int k = 0; k < nPairs; k++) {
+            cellStarts[pairA[k] + 1]++;
+            cellStarts[pairB[k] + 1]++;
+        }
+        for (int i = 0; i < nCells; i++)
+            cellStarts[i + 1] += cellStarts[i];
+        int[] fill = Arrays.copyOf(cellStarts, nCells);
+        for (int k = 0; k < nPairs; k++) {
+            cellPairs[fill[pairA[k]]++] = k;
+            cellPairs[fill[pairB[k]]++] = k;
+        }
+    }
+
+    private static float contactRange(float r, float maxRadius, float skin) {
+        return Settings.contactRangeFactor * (r + maxRadius) + skin;
+    }
+
+    private static void consider(Block block, Cell other, float delta) {
+        ContactList list = block.list;
+        int i = block.slot;
+        int j = ((Particle) other).getSlot();
+        float qi = list.queryRange[i], qj = list.queryRange[j];
+        if (i == j || qi < qj || (qi == qj && j < i))
+            return;
+
+        KinematicStore k = list.kinematics;
+        float dx = k.x[j] - k.x[i];
+        float dy = k.y[j] - k.y[i];
+        float sqDist = dx*dx + dy*dy;
+        float ri = k.radius[i], rj = k.radius[j];
+        float contact = Settings.contactRangeFactor * (ri + rj) + block.skin;
+        float range = Math.max(contact, Math.max(list.reach[i] + rj, list.reach[j] + ri));
+        if (sqDist <= range * range)
+            block.add(j, sqDist, sqDist <= contact * contact);
+    }
+
+    /**
+     * Wakes the sleeping particles in contact with a particle that moved during the last update.
+     * Particles woken here have not moved themselves, so waking does not spread through a resting cluster.
+     */
+    public void wakeSleepers() {
+        boolean[] asleep = kinematics.asleep, moving = kinematics.moving;
+        for (int k = 0; k < nPairs; k++) {
+            if (!pairContact[k])
+                continue;
+            int a = pairA[k], b = pairB[k];
+            if (asleep[a] && !asleep[b] && moving[b])
+                kinematics.wake(a);
+            else if (asleep[b] && !asleep[a] && moving[a])
+                kinematics.wake(b);
+        }
+    }
+
+    /**
+     * Recomputes the squared distance of every pair from the current positions,
+     * so that each pair is measured once per physics substep rather than once from each side.
+     * Pairs of sleeping particles have not moved, so they are skipped.
+     */
+    public void updateDistances() {
+        float[] xs = kinematics.x, ys = kinematics.y;
+        boolean[] asleep = kinematics.asleep;
+        IntStream.range(0, nPairs).parallel().forEach(k -> {
+            if (asleep[pairA[k]] && asleep[pairB[k]])
+                return;
+            float dx = xs[pairB[k]] - xs[pairA[k]];
+            float dy = ys[pairB[k]] - ys[pairA[k]];
+            pairSqDist[k] = dx*dx + dy*dy;
+        });
+    }
+
+    /**
+     * Finds how deeply each particle overlaps the particles it is in contact with.
+     * @param out set to the deepest overlap of each particle, indexed by slot
+     */
+    public void maxOverlaps(float[] out) {
+        Arrays.fill(out, 0, nCells, 0);
+        float[] radii = kinematics.radius;
+        for (int k = 0; k < nPairs; k++) {
+            if (!pairContact[k])
+                continue;
+            int a = pairA[k], b = pairB[k];
+            float depth = radii[a] + radii[b] - (float) Math.sqrt(pairSqDist[k]);
+            if (depth > 0) {
+                out[a] = Math.max(out[a], depth);
+                out[b] = Math.max(out[b], depth);
+            }
+        }
+    }
+
+    /**
+     * Visits the partners of the particle in the order their pairs were found.
+     * @param p the particle whose partners to visit
+     * @param contactsOnly whether to skip partners that are only within interaction range
+     * @param visitor called with the particle, its partner, and the squared distance between them
+     * @param delta time step passed on to the visitor
+     */
+    public <S extends Particle> void forEachPartner(S p, boolean contactsOnly, Visitor<? super S> visitor, float delta) {
+        int i = p.getSlot();
+        if (p.getStore() != kinematics || i >= nCells)
+            return;
+        for (int n = cellStarts[i]; n < cellStarts[i + 1]; n++) {
+            int k = cellPairs[n];
+            if (contactsOnly && !pairContact[k])
+                continue;
+            int j = pairA[k] == i ? pairB[k] : pairA[k];
+            visitor.visit(p, (Cell) kinematics.getParticle(j), pairSqDist[k], delta);
+        }
+    }
+
+    public int getNumPairs() {
+        return nPairs;
+    }
+}
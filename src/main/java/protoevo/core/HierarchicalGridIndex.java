@@ -0,0 +1,142 @@
+package protoevo.core;
+
+import protoevo.biology.Cell;
+import protoevo.env.Rock;
+
+import java.util.Arrays;
+
+/**
+ * Two-level grid: queries no larger than a chunk use the fine chunks of the chunk manager,
+ * while larger queries, such as the interaction range of protozoa, use a coarse grid whose
+ * cells are about the size of the query. The coarse grid is rebuilt every update by a counting
+ * sort of the kinematic slots, so each coarse cell is one contiguous slice of slots.
+ */
+public class HierarchicalGridIndex implements SpatialIndex {
+    public static final long serialVersionUID = 1L;
+
+    private final UniformGridIndex fineGrid;
+    private final float fineSize, coarseSize;
+    private final float xMin, yMin;
+    private final int nXCells, nYCells;
+    private final Rock[][] rocks;
+
+    private transient KinematicStore kinematics;
+    private transient int[] cellStarts, slots, cellIds;
+
+    public HierarchicalGridIndex(ChunkManager chunkManager, float coarseSize) {
+        this.fineGrid = new UniformGridIndex(chunkManager);
+        this.fineSize = chunkManager.getChunkSize();
+        this.coarseSize = Math.max(coarseSize, fineSize);
+        this.xMin = chunkManager.getXMin();
+        this.yMin = chunkManager.getYMin();
+        this.nXCells = 2 + (int) ((chunkManager.getXMax() - xMin) / this.coarseSize);
+        this.nYCells = 2 + (int) ((chunkManager.getYMax() - yMin) / this.coarseSize);
+        this.rocks = new Rock[nXCells * nYCells][0];
+    }
+
+    @Override
+    public String getName() {
+        return "hierarchical";
+    }
+
+    private int toCellX(float x) {
+        int i = (int) (1 + (x - xMin) / coarseSize);
+        return Math.max(0, Math.min(nXCells - 1, i));
+    }
+
+    private int toCellY(float y) {
+        int j = (int) (1 + (y - yMin) / coarseSize);
+        return Math.max(0, Math.min(nYCells - 1, j));
+    }
+
+    @Override
+    public void addRock(Rock rock) {
+        int iMin = toCellX(rock.getBoundingBox()[0].getX());
+        int iMax = toCellX(rock.getBoundingBox()[1].getX());
+        int jMin = toCellY(rock.getBoundingBox()[0].getY());
+        int jMax = toCellY(rock.getBoundingBox()[1].getY());
+        for (int i = iMin; i <= iMax; i++)
+            for (int j = jMin; j <= jMax; j++) {
+                int id = i + j * nXCells;
+                rocks[id] = Arrays.copyOf(rocks[id], rocks[id].length + 1);
+                rocks[id][rocks[id].length - 1] = rock;
+            }
+    }
+
+    @Override
+    public void update(KinematicStore kinematics) {
+        this.kinematics = kinematics;
+        int n = kinematics.size();
+        int nCells = nXCells * nYCells;
+        if (cellStarts == null)
+            cellStarts = new int[nCells + 1];
+        if (slots == null || slots.length < n) {
+            slots = new int[kinematics.x.length];
+            cellIds = new int[kinematics.x.length];
+        }
+
+        Arrays.fill(cellStarts, 0);
+        float[] xs = kinematics.x, ys = kinematics.y;
+        for (int i = 0; i < n; i++) {
+            cellIds[i] = toCellX(xs[i]) + toCellY(ys[i]) * nXCells;
+            cellStarts[cellIds[i] + 1]++;
+        }
+        for (int c = 0; c < nCells; c++)
+            cellStarts[c + 1] += cellStarts[c];
+
+        int[] offsets = Arrays.copyOf(cellStarts, nCells);
+        for (int i = 0; i < n; i++)
+            slots[offsets[cellIds[i]]++] = i;
+    }
+
+    private <S> void forEachCellInCoarseRange(float x, float y, float range,
+                                              S source, Visitor<S, ? super Cell> visitor, float delta) {
+        int iMin = toCellX(x - range), iMax = toCellX(x + range);
+        int jMin = toCellY(y - range), jMax = toCellY(y + range);
+        for (int j = jMin; j <= jMax; j++)
+            for (int i = iMin; i <= iMax; i++) {
+                int id = i + j * nXCells;
+                for (int k = cellStarts[id]; k < cellStarts[id + 1]; k++)
+                    visitor.visit(source, (Cell) kinematics.getParticle(slots[k]), delta);
+            }
+    }
+
+    @Override
+    public <S> void forEachCollidableInRange(float x, float y, float range,
+                                             S source, Visitor<S, ? super Collidable> visitor, float delta) {
+        if (range <= fineSize || kinematics == null) {
+            fineGrid.forEachCollidableInRange(x, y, range, source, visitor, delta);
+            return;
+        }
+        forEachCellInCoarseRange(x, y, range, source, visitor, delta);
+        forEachRockInCoarseRange(x, y, range, source, visitor, delta);
+    }
+
+    private <S> void forEachRockInCoarseRange(float x, float y, float range,
+                                              S source, Visitor<S, ? super Rock> visitor, float delta) {
+        int iMin = toCellX(x - range), iMax = toCellX(x + range);
+        int jMin = toCellY(y - range), jMax = toCellY(y + range);
+        for (int j = jMin; j <= jMax; j++)
+            for (int i = iMin; i <= iMax; i++)
+                for (Rock rock : rocks[i + j * nXCells])
+                    visitor.visit(source, rock, delta);
+    }
+
+    @Override
+    public <S> void forEachCellInRange(float x, float y, float range,
+                                       S source, Visitor<S, ? super Cell> visitor, float delta) {
+        if (range <= fineSize || kinematics == null)
+            fineGrid.forEachCellInRange(x, y, range, source, visitor, delta);
+        else
+            forEachCellInCoarseRange(x, y, range, source, visitor, delta);
+    }
+
+    @Override
+    public <S> void forEachRockInRange(float x, float y, float range,
+                                       S source, Visitor<S, ? super Rock> visitor, float delta) {
+        if (range <= fineSize || kinematics == null)
+            fineGrid.forEachRockInRange(x, y, range, source, visitor, delta);
+        else
+            forEachRockInCoarseRange(x, y, range, source, visitor, delta);
+    }
+}
@@ -0,0 +1,120 @@
+package protoevo.core;
+
+/**
+ * Loops over the kinematic arrays for integration and the tank edge.
+ * This class is the scalar implementation. Building with the {@code vector} Maven profile adds
+ * {@code VectorKinematicKernels}, which does the same work a block of particles at a time with the
+ * incubating Java Vector API, and is used instead when the JVM is run with
+ * {@code --add-modules jdk.incubator.vector}. Both give bit-identical results.
+ */
+public class KinematicKernels {
+
+    private static final KinematicKernels instance = load();
+
+    private static KinematicKernels load() {
+        try {
+            return (KinematicKernels) Class.forName("protoevo.core.VectorKinematicKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not built with the vector profile, or the incubator module was not added at runtime
+            return new KinematicKernels();
+        }
+    }
+
+    public static KinematicKernels getInstance() {
+        return instance;
+    }
+
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Verlet step of the particles in slots [0, n).
+     * The velocity is measured from the displacement since the last step before moving,
+     * with the displacement damped and clamped to the maximum speed.
+     * When a particle's step is a different length to its last one, the displacement carried
+     * over is rescaled to the new step, so that its velocity is unchanged.
+     * @param dt length of each particle's step, or 0 for particles that do not step
+     * @param damping fraction of the displacement carried over from the last step
+     * @param maxSpeed maximum speed of a particle
+     */
+    public void integrate(float[] x, float[] y, float[] prevX, float[] prevY,
+                          float[] velX, float[] velY, float[] accX, float[] accY,
+                          float[] stepDelta, float[] dt, int n, float damping, float maxSpeed) {
+        integrate(x, y, prevX, prevY, velX, velY, accX, accY, stepDelta, dt, 0, n, damping, maxSpeed);
+    }
+
+    protected void integrate(float[] x, float[] y, float[] prevX, float[] prevY,
+                             float[] velX, float[] velY, float[] accX, float[] accY,
+                             float[] stepDelta, float[] dt, int from, int to, float damping, float maxSpeed) {
+        for (int i = from; i < to; i++) {
+            float h = dt[i];
+            if (h == 0)
+                continue;
+            if (Float.isNaN(prevX[i])) {
+                prevX[i] = x[i];
+                prevY[i] = y[i];
+            }
+            float vx = x[i] - prevX[i];
+            float vy = y[i] - prevY[i];
+            float lastDt = Float.isNaN(stepDelta[i]) ? h : stepDelta[i];
+            float invLastDt = 1 / lastDt;
+            velX[i] = vx * invLastDt;
+            velY[i] = vy * invLastDt;
+            if (lastDt != h) {
+                vx *= h / lastDt;
+                vy *= h / lastDt;
+            }
+            stepDelta[i] = h;
+
+            float h2 = h * h;
+            float maxTravel = maxSpeed * h;
+            float maxTravel2 = maxTravel * maxTravel;
+            float dx = vx * damping + accX[i] * h2;
+            float dy = vy * damping + accY[i] * h2;
+            float len2 = dx * dx + dy * dy;
+            if (len2 > maxTravel2) {
+                float s = maxTravel / (float) Math.sqrt(len2);
+                dx *= s;
+                dy *= s;
+            }
+            prevX[i] = x[i];
+            prevY[i] = y[i];
+            x[i] += dx;
+            y[i] += dy;
+        }
+    }
+
+    /**
+     * Keeps the particles in slots [0, n) inside a circular tank centred on the origin.
+     * Particles that hit the wall are moved back inside and have their velocity reflected,
+     * or with a wrapping tank, particles that have left entirely reappear on the opposite side.
+     */
+    public void constrainToTank(float[] x, float[] y, float[] velX, float[] velY, float[] radius,
+                                int n, float tankRadius, boolean wrap) {
+        constrainToTank(x, y, velX, velY, radius, 0, n, tankRadius, wrap);
+    }
+
+    protected void constrainToTank(float[] x, float[] y, float[] velX, float[] velY, float[] radius,
+                                   int from, int to, float tankRadius, boolean wrap) {
+        for (int i = from; i < to; i++) {
+            float px = x[i], py = y[i], r = radius[i];
+            float rPos = (float) Math.sqrt(px*px + py*py);
+            if (wrap && rPos - r > tankRadius) {
+                float s = -0.98f * tankRadius / rPos;
+                x[i] = px * s;
+                y[i] = py * s;
+            }
+            else if (rPos + r > tankRadius) {
+                float s = (tankRadius - r) / rPos;
+                x[i] = px * s;
+                y[i] = py * s;
+                float nx = -px / rPos, ny = -py / rPos;
+                float k = -2 * (nx * velX[i] + ny * velY[i]);
+                velX[i] += nx * k;
+                velY[i] += ny * k;
+            }
+        }
+    }
+}
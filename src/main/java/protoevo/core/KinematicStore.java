@@ -0,0 +1,350 @@
+package protoevo.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays storage for the kinematic state of particles.
+ * Each particle is a handle onto a slot of a store: the tank's store is owned by the
+ * {@link ChunkManager}, while particles that have not been added to a tank (or have been
+ * removed from it) hold a private single-slot store.
+ * Keeping the state in flat primitive arrays lets the integration and tank-edge passes
+ * run as tight loops rather than chasing pointers through every cell.
+ */
+public class KinematicStore implements Serializable {
+    public static final long serialVersionUID = 1L;
+
+    float[] x, y, prevX, prevY, velX, velY, accX, accY, radius, mass;
+    // Chunk the particle is allocated to, and its index in that chunk, or -1 when not allocated
+    int[] chunkId, chunkSlot;
+    // Position corrections accumulated during a collision pass
+    float[] corrX, corrY;
+    // Sleeping particles are skipped by the physics until something disturbs them
+    boolean[] asleep, moving;
+    int[] quietTicks;
+    float[] sleepRadius;
+    // Length of the particle's last integration step, NaN before the first
+    float[] stepDelta;
+    // Length of the step each particle takes on the current substep, 0 if it does not step
+    private transient float[] stepNow;
+    private Particle[] particles;
+    private int size;
+    private boolean deferCorrections;
+
+    public KinematicStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        velX = new float[capacity];
+        velY = new float[capacity];
+        accX = new float[capacity];
+        accY = new float[capacity];
+        radius = new float[capacity];
+        mass = new float[capacity];
+        chunkId = new int[capacity];
+        chunkSlot = new int[capacity];
+        corrX = new float[capacity];
+        corrY = new float[capacity];
+        asleep = new boolean[capacity];
+        moving = new boolean[capacity];
+        quietTicks = new int[capacity];
+        sleepRadius = new float[capacity];
+        stepDelta = new float[capacity];
+        particles = new Particle[capacity];
+        size = 0;
+    }
+
+    /**
+     * Gives the particle its own single-slot store, carrying over any state it already had.
+     * @param p the particle to detach
+     */
+    static void detach(Particle p) {
+        KinematicStore own = new KinematicStore(1);
+        int slot = own.allocate(p);
+        if (p.getStore() != null) {
+            own.copySlot(slot, p.getStore(), p.getSlot());
+            own.chunkId[slot] = -1;
+            own.chunkSlot[slot] = -1;
+        }
+        p.bind(own, slot);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= particles.length)
+            return;
+        int newCapacity = Math.max(capacity, 2 * particles.length);
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        prevX = Arrays.copyOf(prevX, newCapacity);
+        prevY = Arrays.copyOf(prevY, newCapacity);
+        velX = Arrays.copyOf(velX, newCapacity);
+        velY = Arrays.copyOf(velY, newCapacity);
+        accX = Arrays.copyOf(accX, newCapacity);
+        accY = Arrays.copyOf(accY, newCapacity);
+        radius = Arrays.copyOf(radius, newCapacity);
+        mass = Arrays.copyOf(mass, newCapacity);
+        chunkId = Arrays.copyOf(chunkId, newCapacity);
+        chunkSlot = Arrays.copyOf(chunkSlot, newCapacity);
+        corrX = Arrays.copyOf(corrX, newCapacity);
+        corrY = Arrays.copyOf(corrY, newCapacity);
+        asleep = Arrays.copyOf(asleep, newCapacity);
+        moving = Arrays.copyOf(moving, newCapacity);
+        quietTicks = Arrays.copyOf(quietTicks, newCapacity);
+        sleepRadius = Arrays.copyOf(sleepRadius, newCapacity);
+        stepDelta = Arrays.copyOf(stepDelta, newCapacity);
+        particles = Arrays.copyOf(particles, newCapacity);
+    }
+
+    private int allocate(Particle p) {
+        ensureCapacity(size + 1);
+        int slot = size++;
+        particles[slot] = p;
+        x[slot] = 0;
+        y[slot] = 0;
+        // NaN marks the previous position as unset, it is taken from the first integrated position
+        prevX[slot] = Float.NaN;
+        prevY[slot] = Float.NaN;
+        velX[slot] = 0;
+        velY[slot] = 0;
+        accX[slot] = 0;
+        accY[slot] = 0;
+        radius[slot] = 0;
+        mass[slot] = -1;
+        chunkId[slot] = -1;
+        chunkSlot[slot] = -1;
+        asleep[slot] = false;
+        moving[slot] = false;
+        quietTicks[slot] = 0;
+        sleepRadius[slot] = 0;
+        stepDelta[slot] = Float.NaN;
+        return slot;
+    }
+
+    private void copySlot(int dst, KinematicStore src, int srcSlot) {
+        x[dst] = src.x[srcSlot];
+        y[dst] = src.y[srcSlot];
+        prevX[dst] = src.prevX[srcSlot];
+        prevY[dst] = src.prevY[srcSlot];
+        velX[dst] = src.velX[srcSlot];
+        velY[dst] = src.velY[srcSlot];
+        accX[dst] = src.accX[srcSlot];
+        accY[dst] = src.accY[srcSlot];
+        radius[dst] = src.radius[srcSlot];
+        mass[dst] = src.mass[srcSlot];
+        chunkId[dst] = src.chunkId[srcSlot];
+        chunkSlot[dst] = src.chunkSlot[srcSlot];
+        asleep[dst] = src.asleep[srcSlot];
+        moving[dst] = src.moving[srcSlot];
+        quietTicks[dst] = src.quietTicks[srcSlot];
+        sleepRadius[dst] = src.sleepRadius[srcSlot];
+        stepDelta[dst] = src.stepDelta[srcSlot];
+    }
+
+    public void add(Particle p) {
+        KinematicStore src = p.getStore();
+        int srcSlot = p.getSlot();
+        int slot = allocate(p);
+        copySlot(slot, src, srcSlot);
+        p.bind(this, slot);
+    }
+
+    /**
+     * Removes the particle by moving the last slot into its place.
+     * The removed particle keeps its final state in a detached store.
+     * @param p the particle to remove
+     */
+    public void remove(Particle p) {
+        if (p.getStore() != this)
+            return;
+        int slot = p.getSlot();
+        detach(p);
+        int last = --size;
+        if (slot != last) {
+            copySlot(slot, this, last);
+            particles[slot] = particles[last];
+            particles[slot].bind(this, slot);
+        }
+        particles[last] = null;
+    }
+
+    private static float[] permute(float[] values, int[] order, int n) {
+        float[] permuted = new float[values.length];
+        for (int k = 0; k < n; k++)
+            permuted[k] = values[order[k]];
+        return permuted;
+    }
+
+    private static int[] permute(int[] values, int[] order, int n) {
+        int[] permuted = new int[values.length];
+        for (int k = 0; k < n; k++)
+            permuted[k] = values[order[k]];
+        return permuted;
+    }
+
+    private static boolean[] permute(boolean[] values, int[] order, int n) {
+        boolean[] permuted = new boolean[values.length];
+        for (int k = 0; k < n; k++)
+            permuted[k] = values[order[k]];
+        return permuted;
+    }
+
+    /**
+     * Reorders the slots so that slot k holds what was previously in slot order[k].
+     * @param order a permutation of the occupied slots
+     */
+    public void reorder(int[] order) {
+        x = permute(x, order, size);
+        y = permute(y, order, size);
+        prevX = permute(prevX, order, size);
+        prevY = permute(prevY, order, size);
+        velX = permute(velX, order, size);
+        velY = permute(velY, order, size);
+        accX = permute(accX, order, size);
+        accY = permute(accY, order, size);
+        radius = permute(radius, order, size);
+        mass = permute(mass, order, size);
+        chunkId = permute(chunkId, order, size);
+        chunkSlot = permute(chunkSlot, order, size);
+        asleep = permute(asleep, order, size);
+        moving = permute(moving, order, size);
+        quietTicks = permute(quietTicks, order, size);
+        sleepRadius = permute(sleepRadius, order, size);
+        stepDelta = permute(stepDelta, order, size);
+        Particle[] permuted = new Particle[particles.length];
+        for (int k = 0; k < size; k++) {
+            permuted[k] = particles[order[k]];
+            permuted[k].bind(this, k);
+        }
+        particles = permuted;
+    }
+
+    /**
+     * Starts a collision pass. Until {@link #applyCorrections()} is called, each particle only
+     * accumulates corrections to its own position, so particles can resolve their collisions in
+     * parallel against the positions from the start of the pass without touching one another,
+     * and the result does not depend on how the particles are split between threads.
+     */
+    public void beginCorrections() {
+        deferCorrections = true;
+    }
+
+    /**
+     * Ends the collision pass by moving every particle by its accumulated correction.
+     */
+    public void applyCorrections() {
+        for (int i = 0; i < size; i++) {
+            x[i] += corrX[i];
+            y[i] += corrY[i];
+            corrX[i] = 0;
+            corrY[i] = 0;
+        }
+        deferCorrections = false;
+    }
+
+    /**
+     * Moves the particle in the slot, or defers the move to the end of the collision pass if one is running.
+     */
+    boolean isDeferringCorrections() {
+        return deferCorrections;
+    }
+
+    void correct(int slot, float dx, float dy) {
+        if (deferCorrections) {
+            corrX[slot] += dx;
+            corrY[slot] += dy;
+        } else {
+            x[slot] += dx;
+            y[slot] += dy;
+        }
+    }
+
+    /**
+     * Verlet integration of the particles taking a step on this substep of the tick,
+     * see {@link KinematicKernels#integrate}.
+     * @param delta time step of the whole tick
+     * @param scheduler gives the number of steps each particle takes in the tick
+     * @param substep index of the substep within the tick
+     */
+    public void integrate(float delta, SubstepScheduler scheduler, int substep) {
+        if (delta == 0)
+            return;
+        if (stepNow == null || stepNow.length < size)
+            stepNow = new float[x.length];
+        int[] steps = scheduler.getSlotSteps();
+        int maxSteps = scheduler.getMaxSteps();
+        for (int i = 0; i < size; i++)
+            stepNow[i] = asleep[i] || substep % (maxSteps / steps[i]) != 0 ? 0 : delta / steps[i];
+        KinematicKernels.getInstance().integrate(x, y, prevX, prevY, velX, velY, accX, accY,
+                stepDelta, stepNow, size, 1f - Settings.tankFluidResistance, Settings.maxParticleSpeed);
+    }
+
+    /**
+     * Puts to sleep the particles that have been still for {@link Settings#sleepAfterTicks} updates,
+     * and records which of the others moved, so that they can wake sleeping particles they run into.
+     * A particle is still if neither its speed nor the velocity its acceleration would add in a
+     * time step exceed {@link Settings#sleepSpeed} radii per unit time.
+     * @param delta time step of the update
+     */
+    public void updateSleep(float delta) {
+        if (Settings.sleepAfterTicks <= 0)
+            return;
+        for (int i = 0; i < size; i++) {
+            if (asleep[i])
+                continue;
+            float threshold = Settings.sleepSpeed * radius[i];
+            float threshold2 = threshold * threshold;
+            float speed2 = velX[i]*velX[i] + velY[i]*velY[i];
+            float dv2 = (accX[i]*accX[i] + accY[i]*accY[i]) * delta * delta;
+            moving[i] = speed2 > threshold2 || dv2 > threshold2;
+            if (moving[i] || !particles[i].canSleep()) {
+                quietTicks[i] = 0;
+            } else if (++quietTicks[i] >= Settings.sleepAfterTicks) {
+                asleep[i] = true;
+                prevX[i] = x[i];
+                prevY[i] = y[i];
+                velX[i] = 0;
+                velY[i] = 0;
+                sleepRadius[i] = radius[i];
+            }
+        }
+    }
+
+    void wake(int slot) {
+        asleep[slot] = false;
+        quietTicks[slot] = 0;
+    }
+
+    public boolean isAsleep(int slot) {
+        return asleep[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Particle getParticle(int slot) {
+        return particles[slot];
+    }
+
+    public float[] getX() {
+        return x;
+    }
+
+    public float[] getY() {
+        return y;
+    }
+
+    public float[] getVelX() {
+        return velX;
+    }
+
+    public float[] getVelY() {
+        return velY;
+    }
+
+    public float[] getRadius() {
+        return radius;
+    }
+}
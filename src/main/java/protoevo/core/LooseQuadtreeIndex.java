@@ -0,0 +1,243 @@
+package protoevo.core;
+
+import protoevo.biology.Cell;
+import protoevo.env.Rock;
+import protoevo.utils.Vector2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loose quadtree over the cells and rocks, rebuilt every update.
+ * Nodes only subdivide where there are many items, so a population gathered in a few clusters
+ * costs a handful of deep nodes rather than a grid of mostly empty chunks.
+ * An item is stored in the deepest node whose quadrant holds its centre and whose half-size is
+ * at least its radius, and each node records how far its subtree's items actually reach,
+ * so queries skip subtrees whose items cannot be in range rather than testing loosened bounds.
+ * The tree lives in flat arrays in depth-first order: node i keeps its items in
+ * ids[itemStarts[i], itemEnds[i]) and its subtree is the run of nodes from i up to skips[i].
+ */
+public class LooseQuadtreeIndex implements SpatialIndex {
+    public static final long serialVersionUID = 1L;
+
+    private static final int LEAF_CAPACITY = 4;
+    private static final int MAX_DEPTH = 16;
+
+    private final UniformGridIndex fallback;
+    private final List<Rock> rocks = new ArrayList<>();
+    private float[] rockX = new float[0], rockY = new float[0], rockR = new float[0];
+
+    private transient KinematicStore kinematics;
+    // Cell items are their kinematic slot, rock items are encoded as -1 - (index of the rock)
+    private transient int[] ids, idsBuffer, buckets;
+    private transient float[] nodeX, nodeY, nodeReach;
+    private transient int[] skips, itemStarts, itemEnds;
+    private transient int nNodes;
+
+    public LooseQuadtreeIndex(ChunkManager chunkManager) {
+        this.fallback = new UniformGridIndex(chunkManager);
+    }
+
+    @Override
+    public String getName() {
+        return "quadtree";
+    }
+
+    @Override
+    public void addRock(Rock rock) {
+        Vector2 centre = rock.getCentre();
+        float r = 0;
+        for (Vector2 p : rock.getPoints())
+            r = Math.max(r, p.distanceTo(centre));
+        int n = rocks.size();
+        rocks.add(rock);
+        rockX = Arrays.copyOf(rockX, n + 1);
+        rockY = Arrays.copyOf(rockY, n + 1);
+        rockR = Arrays.copyOf(rockR, n + 1);
+        rockX[n] = centre.getX();
+        rockY[n] = centre.getY();
+        rockR[n] = r;
+    }
+
+    private float itemX(int id) {
+        return id >= 0 ? kinematics.x[id] : rockX[-1 - id];
+    }
+
+    private float itemY(int id) {
+        return id >= 0 ? kinematics.y[id] : rockY[-1 - id];
+    }
+
+    private float itemR(int id) {
+        return id >= 0 ? kinematics.radius[id] : rockR[-1 - id];
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (nodeX != null && capacity <= nodeX.length)
+            return;
+        int newCapacity = Math.max(capacity, nodeX == null ? 64 : 2 * nodeX.length);
+        nodeX = nodeX == null ? new float[newCapacity] : Arrays.copyOf(nodeX, newCapacity);
+        nodeY = nodeY == null ? new float[newCapacity] : Arrays.copyOf(nodeY, newCapacity);
+        nodeReach = nodeReach == null ? new float[newCapacity] : Arrays.copyOf(nodeReach, newCapacity);
+        skips = skips == null ? new int[newCapacity] : Arrays.copyOf(skips, newCapacity);
+        itemStarts = itemStarts == null ? new int[newCapacity] : Arrays.copyOf(itemStarts, newCapacity);
+        itemEnds = itemEnds == null ? new int[newCapacity] : Arrays.copyOf(itemEnds, newCapacity);
+    }
+
+    @Override
+    public void update(KinematicStore kinematics) {
+        this.kinematics = kinematics;
+        int nItems = kinematics.size() + rocks.size();
+        if (ids == null || ids.length < nItems) {
+            ids = new int[Math.max(nItems, kinematics.x.length + rocks.size())];
+            idsBuffer = new int[ids.length];
+            buckets = new int[ids.length];
+        }
+        for (int i = 0; i < kinematics.size(); i++)
+            ids[i] = i;
+        for (int i = 0; i < rocks.size(); i++)
+            ids[kinematics.size() + i] = -1 - i;
+
+        // The root is fitted to the items so that none are left at the root for lying outside it
+        float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE;
+        for (int k = 0; k < nItems; k++) {
+            float x = itemX(ids[k]), y = itemY(ids[k]);
+            xMin = Math.min(xMin, x);
+            yMin = Math.min(yMin, y);
+            xMax = Math.max(xMax, x);
+            yMax = Math.max(yMax, y);
+        }
+        float half = Math.max(xMax - xMin, yMax - yMin) / 2;
+
+        nNodes = 0;
+        build((xMin + xMax) / 2, (yMin + yMax) / 2, half, 0, nItems, 0);
+    }
+
+    /**
+     * Keeps the items that are too large for a child, or whose centre lies outside this node,
+     * at the front of the node's range and partitions the rest by quadrant.
+     * Nodes are laid out in depth-first order, so a node's subtree is the run of nodes up to its skip index.
+     * @return the largest distance, along either axis, from the node's centre to the edge of an item in its subtree
+     */
+    private float build(float cx, float cy, float half, int start, int end, int depth) {
+        int node = nNodes++;
+        ensureNodeCapacity(nNodes);
+        nodeX[node] = cx;
+        nodeY[node] = cy;
+        itemStarts[node] = start;
+        itemEnds[node] = end;
+        skips[node] = nNodes;
+        if (end - start <= LEAF_CAPACITY || depth >= MAX_DEPTH)
+            return nodeReach[node] = reach(cx, cy, start, end);
+
+        float childHalf = half / 2;
+        int[] offsets = new int[6];
+        for (int k = start; k < end; k++) {
+            buckets[k] = bucket(ids[k], cx, cy, half, childHalf);
+            offsets[buckets[k] + 1]++;
+        }
+        // Too few items would go to the children for subdividing to be worth it
+        if (offsets[1] > end - start - LEAF_CAPACITY)
+            return nodeReach[node] = reach(cx, cy, start, end);
+
+        offsets[0] = start;
+        for (int b = 1; b < 6; b++)
+            offsets[b] += offsets[b - 1];
+        // offsets[b] is now the start of bucket b, and offsets[b + 1] its end
+        int[] bucketStarts = offsets.clone();
+        for (int k = start; k < end; k++)
+            idsBuffer[offsets[buckets[k]]++] = ids[k];
+        System.arraycopy(idsBuffer, start, ids, start, end - start);
+
+        itemEnds[node] = bucketStarts[1];
+        float reach = reach(cx, cy, start, bucketStarts[1]);
+        for (int q = 0; q < 4; q++) {
+            if (bucketStarts[q + 1] == bucketStarts[q + 2])
+                continue;
+            float childX = cx + ((q & 1) != 0 ? childHalf : -childHalf);
+            float childY = cy + ((q & 2) != 0 ? childHalf : -childHalf);
+            float childReach = build(childX, childY, childHalf,
+                    bucketStarts[q + 1], bucketStarts[q + 2], depth + 1);
+            reach = Math.max(reach, childHalf + childReach);
+        }
+        skips[node] = nNodes;
+        return nodeReach[node] = reach;
+    }
+
+    private float reach(float cx, float cy, int start, int end) {
+        float reach = Float.NEGATIVE_INFINITY;
+        for (int k = start; k < end; k++) {
+            int id = ids[k];
+            float r = itemR(id);
+            reach = Math.max(reach, Math.max(Math.abs(itemX(id) - cx), Math.abs(itemY(id) - cy)) + r);
+        }
+        return reach;
+    }
+
+    private int bucket(int id, float cx, float cy, float half, float childHalf) {
+        float x = itemX(id), y = itemY(id);
+        if (itemR(id) > childHalf || Math.abs(x - cx) > half || Math.abs(y - cy) > half)
+            return 0;
+        return 1 + ((x >= cx ? 1 : 0) | (y >= cy ? 2 : 0));
+    }
+
+    /**
+     * Walks the nodes in depth-first order, jumping past the subtree of any node whose items
+     * cannot reach the query, so a query needs neither recursion nor a stack.
+     */
+    private <S> void visit(float x, float y, float range, boolean includeCells, boolean includeRocks,
+                           S source, Visitor<S, Object> visitor, float delta) {
+        int node = 0;
+        while (node < nNodes) {
+            float nodeRange = nodeReach[node] + range;
+            if (Math.abs(x - nodeX[node]) > nodeRange || Math.abs(y - nodeY[node]) > nodeRange) {
+                node = skips[node];
+                continue;
+            }
+            for (int k = itemStarts[node]; k < itemEnds[node]; k++) {
+                int id = ids[k];
+                if (id < 0 ? !includeRocks : !includeCells)
+                    continue;
+                float itemRange = range + itemR(id);
+                if (Math.abs(itemX(id) - x) > itemRange || Math.abs(itemY(id) - y) > itemRange)
+                    continue;
+                if (id >= 0)
+                    visitor.visit(source, (Cell) kinematics.getParticle(id), delta);
+                else
+                    visitor.visit(source, rocks.get(-1 - id), delta);
+            }
+            node++;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> void forEachCollidableInRange(float x, float y, float range,
+                                             S source, Visitor<S, ? super Collidable> visitor, float delta) {
+        if (kinematics == null)
+            fallback.forEachCollidableInRange(x, y, range, source, visitor, delta);
+        else
+            visit(x, y, range, true, true, source, (Visitor<S, Object>) visitor, delta);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> void forEachCellInRange(float x, float y, float range,
+                                       S source, Visitor<S, ? super Cell> visitor, float delta) {
+        if (kinematics == null)
+            fallback.forEachCellInRange(x, y, range, source, visitor, delta);
+        else
+            // Rocks are skipped, so the visitor only ever sees cells
+            visit(x, y, range, true, false, source, (Visitor<S, Object>) visitor, delta);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> void forEachRockInRange(float x, float y, float range,
+                                       S source, Visitor<S, ? super Rock> visitor, float delta) {
+        if (kinematics == null)
+            fallback.forEachRockInRange(x, y, range, source, visitor, delta);
+        else
+            visit(x, y, range, false, true, source, (Visitor<S, Object>) visitor, delta);
+    }
+}
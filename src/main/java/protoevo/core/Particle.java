@@ -1,84 +1,117 @@
 package protoevo.core;
 
 import protoevo.env.Rock;
+import protoevo.env.RockField;
 import protoevo.env.Tank;
+import protoevo.utils.Colours;
 import protoevo.utils.Geometry;
 import protoevo.utils.Vector2;
 
-import java.awt.*;
 import java.io.Serializable;
-import java.util.Iterator;
 
 public class Particle extends Collidable implements Serializable {
 
-    private static final long serialVersionUID = -4333766895269415282L;
-    private Vector2 pos, prevPos, vel;
-    private final Vector2 acc = new Vector2(0, 0);
-    private float radius;
+    private static final long serialVersionUID = 2L;
+    private static final int COLOUR = Colours.rgb(178, 178, 178);
+    private KinematicStore store;
+    private int slot;
     private final Tank tank;
     private int recentRigidCollisions;
 
     public Particle(Tank tank) {
         this.tank = tank;
+        KinematicStore.detach(this);
     }
 
-    public void resetPhysics() {
-        acc.set(0, 0);
-        recentRigidCollisions = 0;
+    void bind(KinematicStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+    KinematicStore getStore() {
+        return store;
     }
 
-    public void physicsUpdate(float delta) {
-        float subStepDelta = delta / Settings.physicsSubSteps;
-        for (int i = 0; i < Settings.physicsSubSteps; i++)
-            physicsStep(subStepDelta);
+    int getSlot() {
+        return slot;
+    }
+
+    public void resetPhysics() {
+        store.accX[slot] = 0;
+        store.accY[slot] = 0;
+        recentRigidCollisions = 0;
     }
 
+    /**
+     * Resolves collisions with the particles in this tick's contact list, and with nearby rocks.
+     * The rock field is checked first, so the rock edges are only tested when the particle is near a surface.
+     * Moving the particle is left to {@link KinematicStore#integrate},
+     * which the tank runs over all particles after each physics step.
+     * @param delta time step
+     */
     public void physicsStep(float delta) {
         ChunkManager chunkManager = tank.getChunkManager();
-        Iterator<Collidable> entities = chunkManager.broadCollisionDetection(getPos(), radius);
-        entities.forEachRemaining(o -> handlePotentialCollision(o, delta));
-        if (prevPos == null)
-            prevPos = pos.copy();
-
-        if (delta != 0)
-            vel = pos.sub(prevPos).scale(1 / delta);
-        else
-            return;
+        chunkManager.getContacts().forEachPartner(this, true, Particle::handlePotentialCollision, delta);
+
+        RockField rockField = tank.getRockField();
+        if (rockField != null) {
+            float dist = rockField.distance(getX(), getY());
+            if (dist - getRadius() > rockField.getTolerance())
+                return;
+            if (dist < -rockField.getTolerance()) {
+                handleInsideRock(rockField, dist, delta);
+                return;
+            }
+        }
+        chunkManager.forEachRockInRange(getX(), getY(), getRadius(), this, Particle::handlePotentialCollision, delta);
+    }
 
-        move(delta);
+    /**
+     * Called when the rock field shows the particle's centre to be inside a rock, too deep for the edge tests
+     * to find the surface. Pushes the particle out along the field's gradient.
+     * @param rockField the tank's rock field
+     * @param dist the sampled signed distance to the surface
+     * @param delta time step
+     */
+    protected void handleInsideRock(RockField rockField, float dist, float delta) {
+        Vector2 out = rockField.gradient(getX(), getY(), new Vector2(0, 0));
+        float offset = getRadius() - dist;
+        correct(out.getX() * offset, out.getY() * offset);
+        recentRigidCollisions++;
     }
 
-    public void move(float delta)
-    {
-        Vector2 verletVel = pos.sub(prevPos).scale(1f - Settings.tankFluidResistance);
-        Vector2 dx = verletVel.translate(acc.mul(delta * delta));
-        float maxTravel = Settings.maxParticleSpeed * delta;
-        if (dx.len2() > maxTravel * maxTravel)
-            dx.setLength(maxTravel);
-        prevPos.set(pos);
-        pos.translate(dx);
-    }
-
-    public void handleBindingConstraint(Particle attached) {
-        Vector2 axis = getPos().sub(attached.getPos());
-        float dist = axis.len();
-        float targetDist = 1.1f * (getRadius() + attached.getRadius());
-        float offset = targetDist - dist;
-        Vector2 axisNorm = axis.unit();
-        float myMass = getMass();
-        float theirMass = attached.getMass();
-        float p = myMass / (myMass + theirMass);
-        getPos().translate(axisNorm.mul((1 - p) * offset));
-        attached.getPos().translate(axisNorm.mul(-p * offset));
+    /**
+     * Moves the particle to resolve a collision or constraint.
+     * During the tank's collision pass the move is deferred to the end of the pass.
+     */
+    protected void correct(float dx, float dy) {
+        store.correct(slot, dx, dy);
+    }
+
+    public boolean isAsleep() {
+        return store.asleep[slot];
+    }
+
+    /**
+     * Whether the particle may be put to sleep once it has been still for long enough.
+     */
+    public boolean canSleep() {
+        return false;
+    }
+
+    public void wake() {
+        if (store.asleep[slot])
+            store.wake(slot);
     }
 
     public void accelerate(Vector2 da) {
-        acc.translate(da);
+        store.accX[slot] += da.getX();
+        store.accY[slot] += da.getY();
     }
 
     @Override
     public boolean pointInside(Vector2 p) {
-        return Geometry.isPointInsideCircle(getPos(), getRadius(), p);
+        return Geometry.isPointInsideCircle(getX(), getY(), getRadius(), p.getX(), p.getY());
     }
 
     @Override
@@ -86,17 +119,12 @@ public class Particle extends Collidable implements Serializable {
         return false;
     }
 
-    private final Vector2 tmp = new Vector2(0, 0);
-    private final Vector2[] collision = new Vector2[]{
-            new Vector2(0, 0), new Vector2(0, 0)
-    };
-
     public void rayCollisions(Vector2 start, Vector2 end, Collision[] collisions) {
         for (Collision collision : collisions)
             collision.collided = false;
 
         Vector2 ray = end.take(start).nor();
-        Vector2 p = collisions[0].point.set(getPos()).take(start);
+        Vector2 p = collisions[0].point.set(getX(), getY()).take(start);
 
         float a = ray.len2();
         float b = -2 * ray.dot(p);
@@ -130,26 +158,90 @@ public class Particle extends Collidable implements Serializable {
 
     public void onParticleCollisionCallback(Particle p, float delta) {}
 
-    private final Vector2 tmp1 = new Vector2(0, 0);
+    /**
+     * Pushes this particle out of the other by its share of the overlap, weighted by the other's mass.
+     * The other particle is pushed by the remaining share when it handles the collision from its side.
+     * A sleeping particle takes no step of the collision pass, so this particle takes the whole overlap.
+     */
     public void handleParticleCollision(Particle p, float delta) {
-        float mr = p.getMass() / (p.getMass() + getMass());
-        Vector2 axis = tmp1.set(getPos()).take(p.getPos());
-        float dist = axis.len();
-        float targetDist = (getRadius() + p.getRadius());
-        float offset = targetDist - dist;
-        Vector2 axisNorm = axis.nor();
-        getPos().translate(axisNorm.scale(mr * offset));
-        p.getPos().translate(axisNorm.scale(-(1 - mr) / mr));
+        float mr = p.isAsleep() ? 1 : p.getMass() / (p.getMass() + getMass());
+        float axisX = getX() - p.getX();
+        float axisY = getY() - p.getY();
+        float dist = (float) Math.sqrt(axisX*axisX + axisY*axisY);
+        if (dist > 0) {
+            float targetDist = (getRadius() + p.getRadius());
+            float offset = targetDist - dist;
+            float s = mr * offset / dist;
+            correct(axisX * s, axisY * s);
+        }
         onParticleCollisionCallback(p, delta);
     }
 
+    /**
+     * Pushes both particles apart by their shares of the overlap.
+     * For use outside the tank's collision pass, where the other particle does not handle the collision from its side.
+     */
+    public void separateFrom(Particle p, float delta) {
+        if (p == this)
+            return;
+        float axisX = getX() - p.getX();
+        float axisY = getY() - p.getY();
+        float sqDist = axisX*axisX + axisY*axisY;
+        float targetDist = getRadius() + p.getRadius();
+        if (sqDist >= targetDist * targetDist)
+            return;
+
+        float dist = (float) Math.sqrt(sqDist);
+        if (dist > 0) {
+            float mr = p.getMass() / (p.getMass() + getMass());
+            float s = (targetDist - dist) / dist;
+            correct(axisX * mr * s, axisY * mr * s);
+            p.correct(-axisX * (1 - mr) * s, -axisY * (1 - mr) * s);
+        }
+        onParticleCollisionCallback(p, delta);
+    }
+
+    /**
+     * Picks which of two colliding particles handles what should happen once per collision, such as making
+     * a binding between them. The chosen particle takes a step of the collision pass whenever the other does:
+     * an awake particle is chosen over a sleeping one, then the one taking more substeps, then the lower slot.
+     * Outside the pass the caller handles the collision alone, so it is always chosen.
+     */
+    public boolean actsForPair(Particle other) {
+        if (!store.isDeferringCorrections() || other.store != store)
+            return true;
+        boolean awake = !store.asleep[slot];
+        if (awake != !store.asleep[other.slot])
+            return awake;
+        int[] steps = tank.getChunkManager().getSubstepScheduler().getSlotSteps();
+        if (steps[slot] != steps[other.slot])
+            return steps[slot] > steps[other.slot];
+        return slot < other.slot;
+    }
+
+    /**
+     * Orders particles by slot, which unlike the order in which threads reach them is the same on every run.
+     */
+    public static int compareSlots(Particle a, Particle b) {
+        return Integer.compare(a.slot, b.slot);
+    }
+
     public boolean handlePotentialCollision(Particle e, float delta) {
         if (e == this)
             return false;
 
-        float sqDist = e.getPos().squareDistanceTo(getPos());
-        float r = getRadius() + e.getRadius();
+        float dx = e.getX() - getX();
+        float dy = e.getY() - getY();
+        return handlePotentialCollision(e, dx*dx + dy*dy, delta);
+    }
 
+    /**
+     * @param e the other particle
+     * @param sqDist squared distance between the two particles
+     * @param delta time step
+     */
+    public boolean handlePotentialCollision(Particle e, float sqDist, float delta) {
+        float r = getRadius() + e.getRadius();
         if (sqDist < r*r)
             handleParticleCollision(e, delta);
 
@@ -160,24 +252,27 @@ public class Particle extends Collidable implements Serializable {
 
     public boolean handlePotentialCollision(Rock rock, float delta) {
         Vector2[][] edges = rock.getEdges();
-        Vector2 pos = getPos();
+        Vector2[] normals = rock.getNormals();
+        float px = getX(), py = getY();
         float r = getRadius();
 
         for (int i = 0; i < edges.length; i++) {
             Vector2[] edge = edges[i];
-            Vector2 normal = rock.getNormals()[i];
-            Vector2 dir = edge[1].sub(edge[0]);
-            Vector2 x = pos.sub(edge[0]);
+            float nx = normals[i].getX(), ny = normals[i].getY();
+            float dirX = edge[1].getX() - edge[0].getX();
+            float dirY = edge[1].getY() - edge[0].getY();
+            float xX = px - edge[0].getX();
+            float xY = py - edge[0].getY();
 
-            if (dir.dot(normal) > 0)
+            if (dirX*nx + dirY*ny > 0)
                 continue;
 
-            float[] coefs = Geometry.circleIntersectLineCoefficients(dir, x, r);
-            if (Geometry.lineIntersectCondition(coefs)) {
-                float t1 = coefs[0], t2 = coefs[1];
-                float t = (t1 + t2) / 2f;
-                float offset = r - x.sub(dir.mul(t)).len();
-                pos.translate(normal.mul(offset));
+            if (Geometry.doesLineIntersectCircle(dirX, dirY, xX, xY, r)) {
+                // Midpoint of the two intersections, i.e. the closest point on the edge
+                float t = (dirX*xX + dirY*xY) / (dirX*dirX + dirY*dirY);
+                float cx = xX - dirX * t, cy = xY - dirY * t;
+                float offset = r - (float) Math.sqrt(cx*cx + cy*cy);
+                correct(nx * offset, ny * offset);
                 recentRigidCollisions++;
                 onRockCollisionCallback(rock, delta);
                 return true;
@@ -197,13 +292,15 @@ public class Particle extends Collidable implements Serializable {
     public boolean isCollidingWith(Rock rock) {
         Vector2[][] edges = rock.getEdges();
         float r = getRadius();
-        Vector2 pos = getPos();
+        float px = getX(), py = getY();
 
-        if (rock.pointInside(pos))
+        if (rock.pointInside(px, py))
             return true;
 
         for (Vector2[] edge : edges) {
-            if (Geometry.doesLineIntersectCircle(edge, pos, r))
+            float dirX = edge[1].getX() - edge[0].getX();
+            float dirY = edge[1].getY() - edge[0].getY();
+            if (Geometry.doesLineIntersectCircle(dirX, dirY, px - edge[0].getX(), py - edge[0].getY(), r))
                 return true;
         }
         return false;
@@ -213,28 +310,56 @@ public class Particle extends Collidable implements Serializable {
     {
         if (other == this)
             return false;
+        float dx = other.getX() - getX();
+        float dy = other.getY() - getY();
         float r = getRadius() + other.getRadius();
-        return other.getPos().squareDistanceTo(getPos()) < r*r;
+        return dx*dx + dy*dy < r*r;
     }
 
+    /**
+     * @return a copy of the current position. Writing to it does not move the particle,
+     * use {@link #setPos(Vector2)} or {@link #translate(Vector2)} instead.
+     */
     public Vector2 getPos() {
-        return pos;
+        return new Vector2(store.x[slot], store.y[slot]);
+    }
+
+    public float getX() {
+        return store.x[slot];
+    }
+
+    public float getY() {
+        return store.y[slot];
     }
 
     public void setPos(Vector2 pos) {
-        this.pos = pos;
+        setPos(pos.getX(), pos.getY());
+    }
+
+    public void setPos(float x, float y) {
+        store.x[slot] = x;
+        store.y[slot] = y;
+        wake();
+    }
+
+    public void translate(Vector2 dx) {
+        translate(dx.getX(), dx.getY());
+    }
+
+    public void translate(float dx, float dy) {
+        store.x[slot] += dx;
+        store.y[slot] += dy;
+        wake();
     }
 
     public Vector2 getVel() {
-        if (vel == null)
-            return new Vector2(0, 0);
-        return vel;
+        return new Vector2(store.velX[slot], store.velY[slot]);
     }
 
     public float getSpeed() {
-        if (vel == null)
-            return 0f;
-        return vel.len();
+        float vx = store.velX[slot];
+        float vy = store.velY[slot];
+        return (float) Math.sqrt(vx*vx + vy*vy);
     }
 
     public float getMass() {
@@ -249,27 +374,46 @@ public class Particle extends Collidable implements Serializable {
         return Geometry.getSphereVolume(r) * getMassDensity() + extraMass;
     }
 
+    protected float getStoredMass() {
+        return store.mass[slot];
+    }
+
+    protected void setStoredMass(float mass) {
+        store.mass[slot] = mass;
+    }
+
     public float getMassDensity() {
         return 1000f;
     }
 
+    /**
+     * @return how far beyond its edge another particle must be for this particle to ignore it,
+     * used to decide which pairs go in the tick's {@link ContactList}
+     */
+    public float getInteractRange() {
+        return 0;
+    }
+
     public Vector2[] getBoundingBox() {
-        float x = pos.getX();
-        float y = pos.getY();
+        float x = getX();
+        float y = getY();
         float r = getRadius();
         return new Vector2[]{new Vector2(x - r, y - r), new Vector2(x + r, y + r)};
     }
 
     public float getRadius() {
-        return radius;
+        return store.radius[slot];
     }
 
     public void setRadius(float radius) {
-        this.radius = radius;
-        if (this.radius > Settings.maxParticleRadius)
-            this.radius = Settings.maxParticleRadius;
-        if (this.radius < Settings.minParticleRadius)
-            this.radius = Settings.minParticleRadius;
+        if (radius > Settings.maxParticleRadius)
+            radius = Settings.maxParticleRadius;
+        if (radius < Settings.minParticleRadius)
+            radius = Settings.minParticleRadius;
+        store.radius[slot] = radius;
+        // A sleeping particle that has grown or shrunk may now overlap, or have come apart from, its neighbours
+        if (store.asleep[slot] && Math.abs(radius - store.sleepRadius[slot]) > Settings.sleepRadiusTolerance * store.sleepRadius[slot])
+            store.wake(slot);
     }
 
     public Tank getTank() {
@@ -281,7 +425,7 @@ public class Particle extends Collidable implements Serializable {
     }
 
     @Override
-    public Color getColor() {
-        return Color.WHITE.darker();
+    public int getRGB() {
+        return COLOUR;
     }
 }
@@ -79,7 +79,19 @@ public final class Settings {
     // Performance parameters
     public int target_fps;
     public int physics_substeps;
+    public boolean adaptive_substeps;
+    public int max_physics_substeps;
     public int spatial_hash_resolution;
+    public int spatial_reorder_interval;
+    public String spatial_index;
+    public int sleep_after_ticks;
+    public int rock_field_resolution;
+    public String vision_mode;
+    public int vision_refresh_interval;
+    public float vision_reuse_distance;
+    public float vision_lod_distance;
+    public boolean batch_brain_evaluation;
+    public boolean fast_activation_functions;
     public int chemical_field_resolution;
     public int chemical_update_interval;
     public float max_interact_range;
@@ -98,6 +110,9 @@ public final class Settings {
     public static final boolean writeGenomes = true;
     public static final boolean finishOnProtozoaExtinction = true;
     public static final int physicsSubSteps = getInstance().physics_substeps;
+    public static final boolean adaptiveSubSteps = getInstance().adaptive_substeps;
+    public static final int maxPhysicsSubSteps = getInstance().max_physics_substeps;
+    public static final float substepTolerance = 0.05f;
     public static final int numPossibleCAMs = 64;
     public static final float camProductionEnergyCost = getInstance().cam_energy_cost;
     public static final float startingAvailableCellEnergy = 0.01f;
@@ -128,6 +143,19 @@ public final class Settings {
     public static final float tankRadius = getInstance().tank_radius;
     public static final boolean sphericalTank = false;
     public static final int numChunkBreaks = getInstance().spatial_hash_resolution;
+    public static final float chunkRebuildThreshold = 0.25f;
+    public static final int spatialReorderInterval = getInstance().spatial_reorder_interval;
+    public static final String spatialIndex = getInstance().spatial_index;
+    public static final int spatialIndexSelectionInterval = 500;
+    public static final float spatialIndexCrowdedChunk = 64f;
+    public static final float spatialIndexSparseChunk = 2f;
+    public static final float spatialIndexLongRangeChunks = 8f;
+    public static final float contactRangeFactor = 1.1f;
+    public static final float contactSkinFactor = 4f;
+    public static final int bindingSolverIterations = 4;
+    public static final int sleepAfterTicks = getInstance().sleep_after_ticks;
+    public static final float sleepSpeed = 0.1f;
+    public static final float sleepRadiusTolerance = 0.01f;
     public static final float maxParticleRadius = getInstance().max_particle_radius;
     public static final float minParticleRadius = 0.005f;
     public static final float tankFluidResistance = 8e-4f * getInstance().fluid_resistance_multiplier;
@@ -139,6 +167,7 @@ public final class Settings {
     public static final float minRockOpeningSize = getInstance().min_rock_opening_size;
     public static final int rockGenerationIterations = 2000;
     public static final int rockSeedingIterations = 0;
+    public static final int numRockFieldBreaks = getInstance().rock_field_resolution;
     public static final float rockClustering = getInstance().rock_clustering;
 
     // Chemical settings
@@ -158,6 +187,12 @@ public final class Settings {
     public static final float retinaCellGrowthCost = getInstance().retina_growth_cost;
     public static final int numContactSensors = 0;
     public static final float minRetinaRayAngle = (float) Math.toRadians(10);
+    public static final String visionMode = getInstance().vision_mode;
+    public static final int visionRefreshInterval = getInstance().vision_refresh_interval;
+    public static final float visionReuseDistance = getInstance().vision_reuse_distance;
+    public static final float visionLODDistance = getInstance().vision_lod_distance;
+    public static final boolean batchBrainEvaluation = getInstance().batch_brain_evaluation;
+    public static final boolean fastActivationFunctions = getInstance().fast_activation_functions;
     public static final float minHealthToSplit = getInstance().min_health_to_split;
     public static final float maxProtozoanSplitRadius = 0.03f;
     public static final float minProtozoanSplitRadius = 0.015f;
@@ -0,0 +1,43 @@
+package protoevo.core;
+
+import protoevo.biology.Cell;
+import protoevo.env.Rock;
+
+import java.io.Serializable;
+
+/**
+ * Answers range queries over the cells and rocks in the tank.
+ * The {@link ChunkManager} owns the kinematic store and keeps its uniform grid of chunks up to date,
+ * then asks the index to refresh itself once per update.
+ */
+public interface SpatialIndex extends Serializable {
+
+    /**
+     * Callback for range queries.
+     * Passing the querying object and the time step through the call, rather than capturing them,
+     * lets callers use non-capturing lambdas so that a query allocates nothing.
+     */
+    @FunctionalInterface
+    interface Visitor<S, T> {
+        void visit(S source, T target, float delta);
+    }
+
+    String getName();
+
+    void addRock(Rock rock);
+
+    /**
+     * Called once per update, after the chunks have been updated and while no queries are running.
+     * @param kinematics the store holding the cells to index
+     */
+    void update(KinematicStore kinematics);
+
+    <S> void forEachCollidableInRange(float x, float y, float range,
+                                      S source, Visitor<S, ? super Collidable> visitor, float delta);
+
+    <S> void forEachCellInRange(float x, float y, float range,
+                                S source, Visitor<S, ? super Cell> visitor, float delta);
+
+    <S> void forEachRockInRange(float x, float y, float range,
+                                S source, Visitor<S, ? super Rock> visitor, float delta);
+}
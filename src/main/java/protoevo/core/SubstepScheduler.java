@@ -0,0 +1,125 @@
+package protoevo.core;
+
+import java.util.Arrays;
+
+/**
+ * Decides how many physics substeps each particle takes in a tick.
+ * With fixed substepping every particle takes {@link Settings#physicsSubSteps} steps.
+ * With adaptive substepping each chunk is a region whose step count comes from a CFL-like
+ * estimate: the larger of how far its particles moved in the last tick and how deeply they
+ * overlap, relative to their radii, is divided by {@link Settings#substepTolerance}.
+ * Step counts are powers of two, so a region taking n of the tick's m substeps is active on every
+ * (m / n)-th substep and all regions finish the tick together.
+ */
+public class SubstepScheduler {
+
+    private int[] slotSteps = new int[0];
+    private float[] overlaps = new float[0];
+    private float[] chunkDemand = new float[0];
+    private int maxSteps = 1;
+    private float meanSteps = 1;
+    // Number of regions taking 2^k substeps, counting only regions with particles in them
+    private final int[] regionCounts = new int[32];
+
+    /**
+     * Works out the step counts for this tick. Must be called after the contacts have been built.
+     * @param chunkManager the chunk manager holding the particles
+     * @param delta time step of the whole tick
+     */
+    public void plan(ChunkManager chunkManager, float delta) {
+        KinematicStore kinematics = chunkManager.getKinematics();
+        int n = kinematics.size();
+        if (slotSteps.length < n) {
+            slotSteps = new int[kinematics.x.length];
+            overlaps = new float[kinematics.x.length];
+        }
+        Arrays.fill(regionCounts, 0);
+
+        if (!Settings.adaptiveSubSteps) {
+            maxSteps = Math.max(1, Settings.physicsSubSteps);
+            meanSteps = maxSteps;
+            Arrays.fill(slotSteps, 0, n, maxSteps);
+            return;
+        }
+
+        int nChunks = chunkManager.getChunks().length;
+        if (chunkDemand.length < nChunks)
+            chunkDemand = new float[nChunks];
+        Arrays.fill(chunkDemand, 0, nChunks, 0);
+        chunkManager.getContacts().maxOverlaps(overlaps);
+
+        float[] velX = kinematics.velX, velY = kinematics.velY, radius = kinematics.radius;
+        int[] chunkId = kinematics.chunkId;
+        for (int i = 0; i < n; i++) {
+            if (kinematics.asleep[i] || chunkId[i] < 0)
+                continue;
+            float travel = (float) Math.sqrt(velX[i]*velX[i] + velY[i]*velY[i]) * delta;
+            float demand = Math.max(travel, overlaps[i]) / radius[i];
+            chunkDemand[chunkId[i]] = Math.max(chunkDemand[chunkId[i]], demand);
+        }
+
+        int maxAllowed = Integer.highestOneBit(Math.max(1, Settings.maxPhysicsSubSteps));
+        maxSteps = 1;
+        long totalSteps = 0;
+        for (int i = 0; i < n; i++) {
+            int steps = 1;
+            if (chunkId[i] >= 0) {
+                float demand = chunkDemand[chunkId[i]] / Settings.substepTolerance;
+                while (steps < maxAllowed && steps < demand)
+                    steps *= 2;
+            }
+            slotSteps[i] = steps;
+            maxSteps = Math.max(maxSteps, steps);
+            totalSteps += steps;
+        }
+        meanSteps = n > 0 ? totalSteps / (float) n : 1;
+
+        for (Chunk chunk : chunkManager.getChunks()) {
+            if (chunk.getNumCells() == 0)
+                continue;
+            Particle p = chunk.getCell(0);
+            int steps = slotSteps[p.getSlot()];
+            regionCounts[Integer.numberOfTrailingZeros(steps)]++;
+        }
+    }
+
+    /**
+     * @return whether the particle takes a step on the given substep of the tick
+     */
+    public boolean isActive(Particle p, int substep) {
+        return substep % (maxSteps / slotSteps[p.getSlot()]) == 0;
+    }
+
+    /**
+     * @return the length of each of the particle's steps this tick
+     */
+    public float getStepDelta(Particle p, float delta) {
+        return delta / slotSteps[p.getSlot()];
+    }
+
+    int[] getSlotSteps() {
+        return slotSteps;
+    }
+
+    /**
+     * @return the number of substeps in this tick, which is the most taken by any region
+     */
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @return the mean number of steps taken by a particle this tick
+     */
+    public float getMeanSteps() {
+        return meanSteps;
+    }
+
+    /**
+     * @return the number of occupied regions taking 2^k substeps this tick, indexed by k,
+     * or all zero with fixed substepping
+     */
+    public int[] getRegionCounts() {
+        return regionCounts;
+    }
+}
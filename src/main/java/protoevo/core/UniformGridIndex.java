@@ -0,0 +1,68 @@
+package protoevo.core;
+
+import protoevo.biology.Cell;
+import protoevo.env.Rock;
+
+/**
+ * Queries the chunks of the chunk manager directly.
+ * The chunks are maintained by the chunk manager itself, so there is nothing to update.
+ */
+public class UniformGridIndex implements SpatialIndex {
+    public static final long serialVersionUID = 1L;
+
+    private final ChunkManager chunkManager;
+
+    public UniformGridIndex(ChunkManager chunkManager) {
+        this.chunkManager = chunkManager;
+    }
+
+    @Override
+    public String getName() {
+        return "uniform";
+    }
+
+    @Override
+    public void addRock(Rock rock) {}
+
+    @Override
+    public void update(KinematicStore kinematics) {}
+
+    @Override
+    public <S> void forEachCollidableInRange(float x, float y, float range,
+                                             S source, Visitor<S, ? super Collidable> visitor, float delta) {
+        int iMin = chunkManager.toChunkX(x - range);
+        int iMax = chunkManager.toChunkX(x + range);
+        int jMin = chunkManager.toChunkY(y - range);
+        int jMax = chunkManager.toChunkY(y + range);
+
+        for (int i = iMin; i <= iMax; i++)
+            for (int j = jMin; j <= jMax; j++)
+                chunkManager.getChunk(chunkManager.toChunkID(i, j)).forEachCollidable(source, visitor, delta);
+    }
+
+    @Override
+    public <S> void forEachCellInRange(float x, float y, float range,
+                                       S source, Visitor<S, ? super Cell> visitor, float delta) {
+        int iMin = chunkManager.toChunkX(x - range);
+        int iMax = chunkManager.toChunkX(x + range);
+        int jMin = chunkManager.toChunkY(y - range);
+        int jMax = chunkManager.toChunkY(y + range);
+
+        for (int i = iMin; i <= iMax; i++)
+            for (int j = jMin; j <= jMax; j++)
+                chunkManager.getChunk(chunkManager.toChunkID(i, j)).forEachCell(source, visitor, delta);
+    }
+
+    @Override
+    public <S> void forEachRockInRange(float x, float y, float range,
+                                       S source, Visitor<S, ? super Rock> visitor, float delta) {
+        int iMin = chunkManager.toChunkX(x - range);
+        int iMax = chunkManager.toChunkX(x + range);
+        int jMin = chunkManager.toChunkY(y - range);
+        int jMax = chunkManager.toChunkY(y + range);
+
+        for (int i = iMin; i <= iMax; i++)
+            for (int j = jMin; j <= jMax; j++)
+                chunkManager.getChunk(chunkManager.toChunkID(i, j)).forEachRock(source, visitor, delta);
+    }
+}
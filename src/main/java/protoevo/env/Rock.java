@@ -3,6 +3,7 @@ package protoevo.env;
 import protoevo.biology.Cell;
 import protoevo.core.Collidable;
 import protoevo.core.Simulation;
+import protoevo.utils.Geometry;
 import protoevo.utils.Vector2;
 
 import java.awt.*;
@@ -100,15 +101,19 @@ public class Rock extends Collidable implements Serializable {
         return normals;
     }
 
-    private float sign(Vector2 p1, Vector2 p2, Vector2 p3) {
-        return (p1.getX() - p3.getX()) * (p2.getY() - p3.getY())
-                - (p2.getX() - p3.getX()) * (p1.getY() - p3.getY());
+    private static float sign(float x, float y, Vector2 p2, Vector2 p3) {
+        return (x - p3.getX()) * (p2.getY() - p3.getY())
+                - (p2.getX() - p3.getX()) * (y - p3.getY());
     }
 
     public boolean pointInside(Vector2 x) {
-        float d1 = sign(x, points[0], points[1]);
-        float d2 = sign(x, points[1], points[2]);
-        float d3 = sign(x, points[2], points[0]);
+        return pointInside(x.getX(), x.getY());
+    }
+
+    public boolean pointInside(float x, float y) {
+        float d1 = sign(x, y, points[0], points[1]);
+        float d2 = sign(x, y, points[1], points[2]);
+        float d3 = sign(x, y, points[2], points[0]);
 
         boolean hasNeg = (d1 < 0) || (d2 < 0) || (d3 < 0);
         boolean hasPos = (d1 > 0) || (d2 > 0) || (d3 > 0);
@@ -121,7 +126,6 @@ public class Rock extends Collidable implements Serializable {
         return false;
     }
 
-    private final float[] intersectTs = new float[2];
     @Override
     public void rayCollisions(Vector2 start, Vector2 end, Collision[] collisions) {
         for (Collision collision : collisions)
@@ -134,10 +138,11 @@ public class Rock extends Collidable implements Serializable {
                 continue;
 
             Vector2[] edge = edges[i];
-            Vector2 dirEdge = edge[1].sub(edge[0]);
-            float[] coefs = edgesIntersectCoef(start, dirRay, edge[0], dirEdge, intersectTs);
-            if ((coefs != null) && edgeIntersectCondition(coefs)) {
-                float t = coefs[0];
+            float t = Geometry.segmentsIntersectT(
+                    start.getX(), start.getY(), dirRay.getX(), dirRay.getY(),
+                    edge[0].getX(), edge[0].getY(),
+                    edge[1].getX() - edge[0].getX(), edge[1].getY() - edge[0].getY());
+            if (!Float.isNaN(t)) {
                 if (t > bestT)
                     continue;
                 bestT = t;
@@ -157,46 +162,24 @@ public class Rock extends Collidable implements Serializable {
     }
 
 
-    public static float[] edgesIntersectCoef(Vector2 start1, Vector2 dir1, Vector2 start2, Vector2 dir2, float[] ts) {
-        float coef00 = dir1.len2();
-        float coef01 = -dir1.dot(dir2);
-        float coef10 = -dir2.dot(dir1);
-        float coef11 = dir2.len2();
-
-        float const0 = start2.dot(dir1) - start1.dot(dir1);
-        float const1 = start1.dot(dir2) - start2.dot(dir2);
-
-        float det = coef00 * coef11 - coef10 * coef01;
-
-        if (det == 0)
-            return null;
-
-        float t1 = (const0*coef11 - const1*coef01) / det;
-        float t2 = (-const0*coef10 + const1*coef00) / det;
-
-        ts[0] = t1;
-        ts[1] = t2;
-        return ts;
-    }
-
-    public static boolean edgeIntersectCondition(float[] coefs) {
-        float t1 = coefs[0], t2 = coefs[1];
-        return 0f < t1 && t1 < 1f && 0f < t2 && t2 < 1f;
-    }
-
     public static boolean edgesIntersect(Vector2 start1, Vector2 dir1, Vector2 start2, Vector2 dir2) {
-        float[] coefs = edgesIntersectCoef(start1, dir1, start2, dir2, new float[2]);
-        if (coefs == null)
-            return false;
-        return edgeIntersectCondition(coefs);
+        return !Float.isNaN(Geometry.segmentsIntersectT(
+                start1.getX(), start1.getY(), dir1.getX(), dir1.getY(),
+                start2.getX(), start2.getY(), dir2.getX(), dir2.getY()));
     }
 
     public static boolean edgesIntersect(Vector2[] e1, Vector2[] e2) {
-        Vector2 dir1 = e1[1].sub(e1[0]);
-        Vector2 dir2 = e2[1].sub(e2[0]);
-        return edgesIntersect(e1[0], dir1, e2[0], dir2);
+        return !Float.isNaN(Geometry.segmentsIntersectT(
+                e1[0].getX(), e1[0].getY(), e1[1].getX() - e1[0].getX(), e1[1].getY() - e1[0].getY(),
+                e2[0].getX(), e2[0].getY(), e2[1].getX() - e2[0].getX(), e2[1].getY() - e2[0].getY()));
     }
 
+    @Override
+    public int getRGB() {
+        return colour.getRGB();
+    }
+
+    @Override
     public Color getColor() {
         return colour;
     }
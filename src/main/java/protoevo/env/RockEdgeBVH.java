@@ -0,0 +1,213 @@
+package protoevo.env;
+
+import protoevo.core.Collidable;
+import protoevo.utils.Geometry;
+import protoevo.utils.Vector2;
+
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over the exposed edges of all the rocks in the tank, for tracing rays
+ * against every rock at once. Edges shared by two attached rocks cannot be seen, so they are left out.
+ * The nodes are stored in depth-first order, each with the index of the node following its subtree,
+ * so a ray is traced without a stack by stepping into the nodes it hits and skipping past the rest.
+ * Nodes further along the ray than the nearest hit found so far are skipped.
+ */
+public class RockEdgeBVH {
+
+    private static final int LEAF_SIZE = 4;
+    // Boxes are padded so that rounding cannot cull a ray that grazes an edge's end
+    private static final float PADDING = 1e-5f;
+
+    private final float[] edgeX, edgeY, edgeDirX, edgeDirY;
+    private final Rock[] edgeRocks;
+
+    private int nNodes;
+    private final float[] minX, minY, maxX, maxY;
+    private final int[] leafStart, leafCount, skip;
+
+    public RockEdgeBVH(List<Rock> rocks) {
+        int n = 0;
+        for (Rock rock : rocks)
+            for (int i = 0; i < rock.getEdges().length; i++)
+                if (!rock.isEdgeAttached(i))
+                    n++;
+
+        float[] x = new float[n], y = new float[n], dirX = new float[n], dirY = new float[n];
+        Rock[] edgeRock = new Rock[n];
+        int[] order = new int[n];
+        int e = 0;
+        for (Rock rock : rocks) {
+            Vector2[][] edges = rock.getEdges();
+            for (int i = 0; i < edges.length; i++) {
+                if (rock.isEdgeAttached(i))
+                    continue;
+                x[e] = edges[i][0].getX();
+                y[e] = edges[i][0].getY();
+                dirX[e] = edges[i][1].getX() - x[e];
+                dirY[e] = edges[i][1].getY() - y[e];
+                edgeRock[e] = rock;
+                order[e] = e;
+                e++;
+            }
+        }
+
+        int capacity = Math.max(1, 2 * n);
+        minX = new float[capacity];
+        minY = new float[capacity];
+        maxX = new float[capacity];
+        maxY = new float[capacity];
+        leafStart = new int[capacity];
+        leafCount = new int[capacity];
+        skip = new int[capacity];
+        if (n > 0)
+            build(order, new float[n], x, y, dirX, dirY, 0, n);
+
+        // Lay the edges out in leaf order
+        edgeX = new float[n];
+        edgeY = new float[n];
+        edgeDirX = new float[n];
+        edgeDirY = new float[n];
+        edgeRocks = new Rock[n];
+        for (int k = 0; k < n; k++) {
+            edgeX[k] = x[order[k]];
+            edgeY[k] = y[order[k]];
+            edgeDirX[k] = dirX[order[k]];
+            edgeDirY[k] = dirY[order[k]];
+            edgeRocks[k] = edgeRock[order[k]];
+        }
+    }
+
+    /**
+     * Builds the subtree over the edges order[from, to), splitting at the median edge midpoint
+     * along the longer side of the box around the midpoints.
+     */
+    private void build(int[] order, float[] keys, float[] x, float[] y, float[] dirX, float[] dirY, int from, int to) {
+        int node = nNodes++;
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        float cx0 = Float.MAX_VALUE, cy0 = Float.MAX_VALUE, cx1 = -Float.MAX_VALUE, cy1 = -Float.MAX_VALUE;
+        for (int k = from; k < to; k++) {
+            int e = order[k];
+            float ex = x[e] + dirX[e], ey = y[e] + dirY[e];
+            x0 = Math.min(x0, Math.min(x[e], ex));
+            y0 = Math.min(y0, Math.min(y[e], ey));
+            x1 = Math.max(x1, Math.max(x[e], ex));
+            y1 = Math.max(y1, Math.max(y[e], ey));
+            float cx = x[e] + dirX[e] / 2, cy = y[e] + dirY[e] / 2;
+            cx0 = Math.min(cx0, cx);
+            cy0 = Math.min(cy0, cy);
+            cx1 = Math.max(cx1, cx);
+            cy1 = Math.max(cy1, cy);
+        }
+        minX[node] = x0 - PADDING;
+        minY[node] = y0 - PADDING;
+        maxX[node] = x1 + PADDING;
+        maxY[node] = y1 + PADDING;
+
+        if (to - from <= LEAF_SIZE) {
+            leafStart[node] = from;
+            leafCount[node] = to - from;
+            skip[node] = nNodes;
+            return;
+        }
+
+        boolean splitX = cx1 - cx0 >= cy1 - cy0;
+        for (int k = from; k < to; k++) {
+            int e = order[k];
+            keys[e] = splitX ? x[e] + dirX[e] / 2 : y[e] + dirY[e] / 2;
+        }
+        int mid = (from + to) >>> 1;
+        select(order, keys, from, to - 1, mid);
+        build(order, keys, x, y, dirX, dirY, from, mid);
+        build(order, keys, x, y, dirX, dirY, mid, to);
+        skip[node] = nNodes;
+    }
+
+    /**
+     * Partially sorts order[lo, hi] by key so that the k-th element is in place,
+     * with no larger keys before it and no smaller keys after it.
+     */
+    private static void select(int[] order, float[] keys, int lo, int hi, int k) {
+        while (lo < hi) {
+            float pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot)
+                    i++;
+                while (keys[order[j]] > pivot)
+                    j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    /**
+     * Finds the nearest rock edge crossed by the segment from start to end.
+     * @param collision set to whether an edge was hit, and if so where
+     * @return the rock whose edge was hit, or null if none was
+     */
+    public Rock rayCollision(Vector2 start, Vector2 end, Collidable.Collision collision) {
+        float sx = start.getX(), sy = start.getY();
+        float dx = end.getX() - sx, dy = end.getY() - sy;
+        float invDx = 1 / dx, invDy = 1 / dy;
+        float bestT = 1;
+        int best = -1;
+
+        int node = 0;
+        while (node < nNodes) {
+            if (!rayHitsBox(node, sx, sy, dx, dy, invDx, invDy, bestT)) {
+                node = skip[node];
+                continue;
+            }
+            for (int k = leafStart[node]; k < leafStart[node] + leafCount[node]; k++) {
+                float t = Geometry.segmentsIntersectT(
+                        sx, sy, dx, dy, edgeX[k], edgeY[k], edgeDirX[k], edgeDirY[k]);
+                if (!Float.isNaN(t) && t <= bestT) {
+                    bestT = t;
+                    best = k;
+                }
+            }
+            node++;
+        }
+
+        collision.collided = best >= 0;
+        if (best < 0)
+            return null;
+        collision.point.set(start).translate(dx * bestT, dy * bestT);
+        return edgeRocks[best];
+    }
+
+    private boolean rayHitsBox(int node, float sx, float sy, float dx, float dy,
+                               float invDx, float invDy, float tMax) {
+        float tNear = 0, tFar = tMax;
+        if (dx != 0) {
+            float t1 = (minX[node] - sx) * invDx, t2 = (maxX[node] - sx) * invDx;
+            tNear = Math.max(tNear, Math.min(t1, t2));
+            tFar = Math.min(tFar, Math.max(t1, t2));
+        } else if (sx < minX[node] || sx > maxX[node]) {
+            return false;
+        }
+        if (dy != 0) {
+            float t1 = (minY[node] - sy) * invDy, t2 = (maxY[node] - sy) * invDy;
+            tNear = Math.max(tNear, Math.min(t1, t2));
+            tFar = Math.min(tFar, Math.max(t1, t2));
+        } else if (sy < minY[node] || sy > maxY[node]) {
+            return false;
+        }
+        return tNear <= tFar;
+    }
+
+    public int getNumEdges() {
+        return edgeX.length;
+    }
+}
@@ -0,0 +1,147 @@
+package protoevo.env;
+
+import protoevo.utils.Vector2;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Signed distance from points in the tank to the nearest rock surface, negative inside a rock.
+ * Rocks do not move once generated, so the distance and its gradient are computed once on a grid
+ * and then bilinearly sampled. The distance is 1-Lipschitz, so a sample differs from the true
+ * distance by at most {@link #getTolerance()}, the diagonal of a grid cell. Points that the field
+ * shows to be further than that from every surface need no exact tests against the rock edges.
+ * Distances beyond the range given when building are clamped to it.
+ */
+public class RockField implements Serializable {
+    public static final long serialVersionUID = 1L;
+
+    private final float gridSize;
+    private final float xMin;
+    private final float yMin;
+    private final int nX;
+    private final int nY;
+    private final float tolerance;
+    private final float[] distance;
+    private final float[] gradX;
+    private final float[] gradY;
+
+    /**
+     * @param rocks the rocks, which must not move afterwards
+     * @param range distance beyond which the field is clamped
+     */
+    public RockField(List<Rock> rocks,
+                     float xMin, float xMax,
+                     float yMin, float yMax,
+                     float gridSize, float range) {
+        this.xMin = xMin;
+        this.yMin = yMin;
+        this.gridSize = gridSize;
+        this.nX = 1 + (int) Math.ceil((xMax - xMin) / gridSize);
+        this.nY = 1 + (int) Math.ceil((yMax - yMin) / gridSize);
+        this.tolerance = (float) Math.sqrt(2) * gridSize;
+
+        distance = new float[nX * nY];
+        gradX = new float[nX * nY];
+        gradY = new float[nX * nY];
+        Arrays.fill(distance, range);
+        for (Rock rock : rocks)
+            addRock(rock, range);
+    }
+
+    /**
+     * Lowers the distance of the nodes within range of the rock to their distance from it.
+     * Taking the minimum over the rocks gives the distance to their union.
+     */
+    private void addRock(Rock rock, float range) {
+        Vector2[] bounds = rock.getBoundingBox();
+        int iMin = Math.max(0, (int) Math.floor((bounds[0].getX() - range - xMin) / gridSize));
+        int iMax = Math.min(nX - 1, (int) Math.ceil((bounds[1].getX() + range - xMin) / gridSize));
+        int jMin = Math.max(0, (int) Math.floor((bounds[0].getY() - range - yMin) / gridSize));
+        int jMax = Math.min(nY - 1, (int) Math.ceil((bounds[1].getY() + range - yMin) / gridSize));
+        Vector2[][] edges = rock.getEdges();
+
+        for (int j = jMin; j <= jMax; j++) {
+            float y = yMin + j * gridSize;
+            for (int i = iMin; i <= iMax; i++) {
+                float x = xMin + i * gridSize;
+                float bestDist2 = Float.MAX_VALUE, fromX = 0, fromY = 0;
+                for (Vector2[] edge : edges) {
+                    float ax = edge[0].getX(), ay = edge[0].getY();
+                    float dx = edge[1].getX() - ax, dy = edge[1].getY() - ay;
+                    float t = ((x - ax) * dx + (y - ay) * dy) / (dx*dx + dy*dy);
+                    t = Math.max(0, Math.min(1, t));
+                    float cx = x - (ax + dx * t), cy = y - (ay + dy * t);
+                    float dist2 = cx*cx + cy*cy;
+                    if (dist2 < bestDist2) {
+                        bestDist2 = dist2;
+                        fromX = cx;
+                        fromY = cy;
+                    }
+                }
+
+                float dist = (float) Math.sqrt(bestDist2);
+                // The gradient points away from the surface outside the rock, and towards it inside
+                float sign = rock.pointInside(x, y) ? -1 : 1;
+                int k = j * nX + i;
+                if (sign * dist < distance[k]) {
+                    distance[k] = sign * dist;
+                    gradX[k] = dist > 0 ? sign * fromX / dist : 0;
+                    gradY[k] = dist > 0 ? sign * fromY / dist : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the signed distance to the nearest rock surface, or 0 outside the grid,
+     * where nothing is known about the rocks
+     */
+    public float distance(float x, float y) {
+        float fx = (x - xMin) / gridSize, fy = (y - yMin) / gridSize;
+        int i = (int) Math.floor(fx), j = (int) Math.floor(fy);
+        if (i < 0 || j < 0 || i >= nX - 1 || j >= nY - 1)
+            return 0;
+        return bilinear(distance, i, j, fx - i, fy - j);
+    }
+
+    /**
+     * Writes the direction in which the distance to the nearest rock surface increases,
+     * which for a point inside a rock is the way out. Left at zero outside the grid
+     * and where no rock is in range.
+     * @param out the vector to write the direction to
+     * @return out, set to the unit gradient
+     */
+    public Vector2 gradient(float x, float y, Vector2 out) {
+        out.set(0, 0);
+        float fx = (x - xMin) / gridSize, fy = (y - yMin) / gridSize;
+        int i = (int) Math.floor(fx), j = (int) Math.floor(fy);
+        if (i < 0 || j < 0 || i >= nX - 1 || j >= nY - 1)
+            return out;
+        float gx = bilinear(gradX, i, j, fx - i, fy - j);
+        float gy = bilinear(gradY, i, j, fx - i, fy - j);
+        float len = (float) Math.sqrt(gx*gx + gy*gy);
+        if (len > 0)
+            out.set(gx / len, gy / len);
+        return out;
+    }
+
+    private float bilinear(float[] values, int i, int j, float u, float v) {
+        int k = j * nX + i;
+        float bottom = values[k] + u * (values[k + 1] - values[k]);
+        float top = values[k + nX] + u * (values[k + nX + 1] - values[k + nX]);
+        return bottom + v * (top - bottom);
+    }
+
+    /**
+     * @return the most a sampled distance can differ from the true distance
+     */
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    public float getGridSize() {
+        return gridSize;
+    }
+}
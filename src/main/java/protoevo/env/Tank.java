@@ -8,9 +8,15 @@ import java.util.stream.Collectors;
 
 import protoevo.biology.*;
 import protoevo.biology.genes.Gene;
+import protoevo.core.BindingSolver;
 import protoevo.core.ChunkManager;
+import protoevo.core.KinematicKernels;
+import protoevo.core.KinematicStore;
 import protoevo.core.Settings;
 import protoevo.core.Simulation;
+import protoevo.core.SubstepScheduler;
+import protoevo.neat.NetworkBatcher;
+import protoevo.neat.NeuralNetwork;
 import protoevo.utils.FileIO;
 import protoevo.utils.Vector2;
 
@@ -27,6 +33,10 @@ public class Tank implements Iterable<Cell>, Serializable
 	private final ChunkManager chunkManager;
 	private final ChemicalSolution chemicalSolution;
 	private final List<Rock> rocks;
+	private RockField rockField;
+	private transient RockEdgeBVH rockEdges;
+	private transient VisionScheduler visionScheduler;
+	private transient NetworkBatcher brainBatcher;
 	private long generation = 1, protozoaBorn = 0, totalCellsAdded = 0, crossoverEvents = 0;
 
 	private String genomeFile = null;
@@ -77,6 +87,7 @@ public class Tank implements Iterable<Cell>, Serializable
 			RockGeneration.generateRocks(this);
 
 			rocks.forEach(chunkManager::allocateToChunk);
+			buildRockField();
 			if (clusterCentres != null)
 				initialisePopulation(Arrays.copyOfRange(clusterCentres, 0, Settings.numPopulationClusters));
 			else
@@ -88,6 +99,20 @@ public class Tank implements Iterable<Cell>, Serializable
 
 			hasInitialised = true;
 		}
+		// Tanks saved before the rock field was added
+		else if (rockField == null) {
+			buildRockField();
+		}
+		rockEdges = new RockEdgeBVH(rocks);
+	}
+
+	private void buildRockField() {
+		if (Settings.numRockFieldBreaks <= 0)
+			return;
+		float gridSize = 2 * radius / Settings.numRockFieldBreaks;
+		// Far enough for the largest particle, and the rays of any protozoan, to be shown clear of the rocks
+		float range = Math.max(Settings.maxParticleRadius, Settings.protozoaInteractRange) + 2 * (float) Math.sqrt(2) * gridSize;
+		rockField = new RockField(rocks, -radius, radius, -radius, radius, gridSize, range);
 	}
 
 	public void writeGenomeHeaders() {
@@ -155,22 +180,89 @@ public class Tank implements Iterable<Cell>, Serializable
 		return randomPosition(entityRadius, Vector2.ZERO, radius);
 	}
 
-	public void handleTankEdge(Cell e) {
-		float rPos = e.getPos().len();
-		if (Settings.sphericalTank && rPos - e.getRadius() > radius)
-			e.getPos().setLength(-0.98f * radius);
-		else if (rPos + e.getRadius() > radius) {
-			e.getPos().setLength(radius - e.getRadius());
-			Vector2 normal = e.getPos().unit().scale(-1);
-			e.getVel().translate(normal.mul(-2*normal.dot(e.getVel())));
-		}
-
+	/**
+	 * Keeps every particle inside the tank, reflecting the velocity of those that hit the wall.
+	 * Runs directly over the kinematic arrays of the chunk manager.
+	 */
+	public void handleTankEdge() {
+		KinematicStore kinematics = chunkManager.getKinematics();
+		KinematicKernels.getInstance().constrainToTank(
+				kinematics.getX(), kinematics.getY(), kinematics.getVelX(), kinematics.getVelY(),
+				kinematics.getRadius(), kinematics.size(), radius, Settings.sphericalTank);
 	}
 
 	public void updateCell(Cell e, float delta) {
 		e.handleInteractions(delta);
 		e.update(delta);
-		handleTankEdge(e);
+	}
+
+	/**
+	 * Updates the cells as {@link #updateCell} would, but with the protozoa's networks all ticked together
+	 * between sensing and moving.
+	 */
+	private void updateCellsWithBatchedBrains(Collection<Cell> cells, float delta) {
+		cells.parallelStream().forEach(cell -> {
+			cell.handleInteractions(delta);
+			if (cell instanceof Protozoan) {
+				Protozoan p = (Protozoan) cell;
+				p.beginUpdate(delta);
+				if (p.getBrain() instanceof NNBrain)
+					((NNBrain) p.getBrain()).sense(p);
+				else
+					p.getBrain().tick(p);
+			} else {
+				cell.update(delta);
+			}
+		});
+
+		List<Protozoan> protozoa = new ArrayList<>();
+		List<NeuralNetwork> networks = new ArrayList<>();
+		for (Cell cell : cells) {
+			if (cell instanceof Protozoan) {
+				Protozoan p = (Protozoan) cell;
+				protozoa.add(p);
+				if (p.getBrain() instanceof NNBrain)
+					networks.add(((NNBrain) p.getBrain()).network);
+			}
+		}
+		getBrainBatcher().tick(networks);
+
+		protozoa.parallelStream().forEach(p -> {
+			if (p.getBrain() instanceof NNBrain)
+				((NNBrain) p.getBrain()).act();
+			p.finishUpdate(delta);
+		});
+	}
+
+	/**
+	 * The physics pass of a tick: the collision and binding constraints, then the integration of every particle.
+	 */
+	public void physicsUpdate(Collection<Cell> cells, float delta) {
+		KinematicStore kinematics = chunkManager.getKinematics();
+		BindingSolver bindingSolver = chunkManager.getBindingSolver();
+		bindingSolver.clear(kinematics);
+		for (Cell cell : cells) {
+			if (cell.getCellBindings().isEmpty())
+				continue;
+			for (CellAdhesion.CellBinding binding : cell.getCellBindings())
+				bindingSolver.add(cell, binding.getDestinationEntity());
+		}
+		bindingSolver.prepare();
+
+		SubstepScheduler scheduler = chunkManager.getSubstepScheduler();
+		scheduler.plan(chunkManager, delta);
+		for (int i = 0; i < scheduler.getMaxSteps(); i++) {
+			final int substep = i;
+			chunkManager.getContacts().updateDistances();
+			kinematics.beginCorrections();
+			cells.parallelStream()
+					.filter(cell -> !cell.isAsleep() && scheduler.isActive(cell, substep))
+					.forEach(cell -> cell.physicsStep(scheduler.getStepDelta(cell, delta)));
+			kinematics.applyCorrections();
+			bindingSolver.solve(Settings.bindingSolverIterations);
+			kinematics.integrate(delta, scheduler, substep);
+		}
+		kinematics.updateSleep(delta);
 	}
 
 	private void flushEntitiesToAdd() {
@@ -191,14 +283,21 @@ public class Tank implements Iterable<Cell>, Serializable
 	public void update(float delta) 
 	{
 		elapsedTime += delta;
+		getVisionScheduler().nextTick();
 		flushEntitiesToAdd();
+		chunkManager.updateContacts(delta);
+		chunkManager.getContacts().wakeSleepers();
 		flushWrites();
 
 		Collection<Cell> cells = chunkManager.getAllCells();
 
 		cells.parallelStream().forEach(Cell::resetPhysics);
-		cells.parallelStream().forEach(cell -> updateCell(cell, delta));
-		cells.parallelStream().forEach(cell -> cell.physicsUpdate(delta));
+		if (Settings.batchBrainEvaluation)
+			updateCellsWithBatchedBrains(cells, delta);
+		else
+			cells.parallelStream().forEach(cell -> updateCell(cell, delta));
+		handleTankEdge();
+		physicsUpdate(cells, delta);
 		cells.parallelStream().forEach(this::handleDeadEntities);
 
 		if (chemicalSolution != null)
@@ -254,7 +353,7 @@ public class Tank implements Iterable<Cell>, Serializable
 		if (getCount(e.getClass()) >= getCapacity(e.getClass()))
 			return;
 
-		totalCellsAdded++;
+		e.setBirthIndex(totalCellsAdded++);
 		if (e instanceof Protozoan)
 			nProtozoa++;
 		else if (e instanceof PlantCell)
@@ -282,6 +381,30 @@ public class Tank implements Iterable<Cell>, Serializable
 		stats.put("Protozoa Born", (float) protozoaBorn);
 		stats.put("Total Entities Born", (float) totalCellsAdded);
 		stats.put("Crossover Events", (float) crossoverEvents);
+		if (Settings.adaptiveSubSteps) {
+			SubstepScheduler scheduler = chunkManager.getSubstepScheduler();
+			stats.put("Physics Substeps", (float) scheduler.getMaxSteps());
+			stats.put("Mean Physics Substeps", scheduler.getMeanSteps());
+			int[] regionCounts = scheduler.getRegionCounts();
+			for (int k = 0; k < regionCounts.length; k++)
+				if (regionCounts[k] > 0)
+					stats.put("Regions At " + (1 << k) + " Substeps", (float) regionCounts[k]);
+		}
+		VisionScheduler vision = getVisionScheduler();
+		if (vision.getCasts() > 0) {
+			long looks = vision.getCasts() + vision.getReused() + vision.getHeld();
+			stats.put("Vision Refreshed", (float) vision.getCasts() / looks);
+			stats.put("Vision Reused", (float) vision.getReused() / looks);
+			stats.put("Vision Held", (float) vision.getHeld() / looks);
+			stats.put("Vision Reduced Rays", (float) vision.getReducedCasts() / vision.getCasts());
+			stats.put("Rays Cast Per Refresh", (float) vision.getRaysCast() / vision.getCasts());
+			stats.put("Ray Hit Rate", (float) vision.getRayHits() / vision.getRaysCast());
+		}
+		if (Settings.batchBrainEvaluation && getBrainBatcher().getNetworks() > 0) {
+			NetworkBatcher batcher = getBrainBatcher();
+			stats.put("Brains Batched", (float) batcher.getBatchedNetworks() / batcher.getNetworks());
+			stats.put("Brain Batches", (float) batcher.getBatches());
+		}
 		if (includeProtozoaStats)
 			stats.putAll(getProtozoaStats());
 		return stats;
@@ -352,6 +475,13 @@ public class Tank implements Iterable<Cell>, Serializable
 	public boolean isCollidingWithAnything(Cell e) {
 		if (chunkManager.getAllCells().stream().anyMatch(e::isCollidingWith))
 			return true;
+		if (rockField != null) {
+			float dist = rockField.distance(e.getX(), e.getY());
+			if (dist - e.getRadius() > rockField.getTolerance())
+				return false;
+			if (dist < -rockField.getTolerance())
+				return true;
+		}
 		return rocks.stream().anyMatch(e::isCollidingWith);
 	}
 
@@ -381,6 +511,35 @@ public class Tank implements Iterable<Cell>, Serializable
 		return rocks;
 	}
 
+	/**
+	 * @return the signed distance field of the rocks, or null if it is turned off or the tank has not been initialised
+	 */
+	public RockField getRockField() {
+		return rockField;
+	}
+
+	/**
+	 * @return the hierarchy of rock edges used for ray casting, or null if the tank has not been initialised
+	 */
+	public RockEdgeBVH getRockEdges() {
+		return rockEdges;
+	}
+
+	/**
+	 * Created by the first update, before the protozoa look around.
+	 */
+	public VisionScheduler getVisionScheduler() {
+		if (visionScheduler == null)
+			visionScheduler = new VisionScheduler();
+		return visionScheduler;
+	}
+
+	public NetworkBatcher getBrainBatcher() {
+		if (brainBatcher == null)
+			brainBatcher = new NetworkBatcher();
+		return brainBatcher;
+	}
+
 	public void registerCrossoverEvent() {
 		crossoverEvents++;
 	}
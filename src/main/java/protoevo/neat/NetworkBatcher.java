@@ -0,0 +1,121 @@
+package protoevo.neat;
+
+import java.util.*;
+
+/**
+ * Ticks many networks at once. Networks with the same topology, such as the fully connected networks
+ * that every lineage starts from, are ticked together in batches; the rest are ticked one at a time.
+ */
+public class NetworkBatcher
+{
+    private static final int BATCH_SIZE = 64;
+
+    private static class Batch {
+        private final NeuralNetwork[] networks = new NeuralNetwork[BATCH_SIZE];
+        private int count;
+        private float[] state = new float[0], weight = new float[0];
+        private final float[] sum = new float[BATCH_SIZE];
+
+        private void tick() {
+            if (count == 1) {
+                networks[0].tick();
+            } else {
+                NeuralNetwork first = networks[0];
+                int nInputs = first.getNumSynapses();
+                if (state.length < count * (first.getSize() + 1))
+                    state = new float[count * (first.getSize() + 1)];
+                if (weight.length < count * nInputs)
+                    weight = new float[count * nInputs];
+                NeuralNetwork.tick(networks, count, state, weight, sum);
+            }
+            Arrays.fill(networks, 0, count, null);
+            count = 0;
+        }
+    }
+
+    private static class Group {
+        // The first of its networks' equal topologies, which the rest are made to share
+        private final NeuralNetwork.Topology topology;
+        private final List<NeuralNetwork> networks = new ArrayList<>();
+
+        private Group(NeuralNetwork.Topology topology) {
+            this.topology = topology;
+        }
+    }
+
+    private final Map<NeuralNetwork.Topology, Group> groups = new HashMap<>();
+    // Networks with no others of the same topology
+    private final List<NeuralNetwork> irregular = new ArrayList<>();
+    private final List<Batch> batches = new ArrayList<>();
+    private int nNetworks, batchedNetworks, nBatches;
+
+    /**
+     * Ticks each of the networks once, as {@link NeuralNetwork#tick()} would.
+     */
+    public void tick(Collection<NeuralNetwork> networks) {
+        for (NeuralNetwork network : networks) {
+            NeuralNetwork.Topology topology = network.getTopology();
+            Group group = groups.get(topology);
+            if (group == null) {
+                group = new Group(topology);
+                groups.put(topology, group);
+            } else if (group.topology != topology) {
+                network.shareTopology(group.topology);
+            }
+            group.networks.add(network);
+        }
+
+        int used = 0;
+        nNetworks = networks.size();
+        batchedNetworks = 0;
+        Iterator<Group> it = groups.values().iterator();
+        while (it.hasNext()) {
+            List<NeuralNetwork> group = it.next().networks;
+            if (group.isEmpty()) {
+                // Not seen this tick, so the topology has probably died out
+                it.remove();
+                continue;
+            }
+            if (group.size() == 1) {
+                irregular.add(group.get(0));
+                group.clear();
+                continue;
+            }
+            for (int start = 0; start < group.size(); start += BATCH_SIZE) {
+                if (used == batches.size())
+                    batches.add(new Batch());
+                Batch batch = batches.get(used++);
+                for (int i = start; i < Math.min(group.size(), start + BATCH_SIZE); i++)
+                    batch.networks[batch.count++] = group.get(i);
+            }
+            batchedNetworks += group.size();
+            group.clear();
+        }
+        nBatches = used;
+
+        batches.subList(0, used).parallelStream().forEach(Batch::tick);
+        irregular.parallelStream().forEach(NeuralNetwork::tick);
+        irregular.clear();
+    }
+
+    /**
+     * @return how many networks the last tick ticked
+     */
+    public int getNetworks() {
+        return nNetworks;
+    }
+
+    /**
+     * @return how many of the networks in the last tick were ticked in batches
+     */
+    public int getBatchedNetworks() {
+        return batchedNetworks;
+    }
+
+    /**
+     * @return how many batches the last tick used
+     */
+    public int getBatches() {
+        return nBatches;
+    }
+}
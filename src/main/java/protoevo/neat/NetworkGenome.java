@@ -6,9 +6,6 @@ import protoevo.core.Simulation;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class NetworkGenome implements Serializable
 {
@@ -86,7 +83,8 @@ public class NetworkGenome implements Serializable
 		this.sensorNeuronGenes = sensorGenes;
 		this.outputNeuronGenes = outputGenes;
 		this.hiddenNeuronGenes = hiddenGenes;
-		this.synapseGenes = synapseGenes;
+		this.synapseGenes = synapseGenes.clone();
+		Arrays.sort(this.synapseGenes);
 		this.defaultActivation = activation;
 
 		nSensors = sensorGenes.length;
@@ -103,10 +101,10 @@ public class NetworkGenome implements Serializable
 		sensorNeuronGenes[sensorNeuronGenes.length - 1] = n;
 		nSensors++;
 
-		int originalLen = synapseGenes.length;
-		synapseGenes = Arrays.copyOf(synapseGenes, originalLen + outputNeuronGenes.length);
+		SynapseGene[] newGenes = new SynapseGene[outputNeuronGenes.length];
 		for (int i = 0; i < outputNeuronGenes.length; i++)
-			synapseGenes[originalLen + i] = new SynapseGene(n, outputNeuronGenes[i]);
+			newGenes[i] = new SynapseGene(n, outputNeuronGenes[i]);
+		addSynapseGenes(newGenes);
 	}
 
 	public void addOutput(String label) {
@@ -118,10 +116,27 @@ public class NetworkGenome implements Serializable
 		outputNeuronGenes[outputNeuronGenes.length - 1] = n;
 		nOutputs++;
 
-		int originalLen = synapseGenes.length;
-		synapseGenes = Arrays.copyOf(synapseGenes, originalLen + sensorNeuronGenes.length);
+		SynapseGene[] newGenes = new SynapseGene[sensorNeuronGenes.length];
 		for (int i = 0; i < sensorNeuronGenes.length; i++)
-			synapseGenes[originalLen + i] = new SynapseGene(sensorNeuronGenes[i], n);
+			newGenes[i] = new SynapseGene(sensorNeuronGenes[i], n);
+		addSynapseGenes(newGenes);
+	}
+
+	/**
+	 * Appends the genes, keeping the synapse genes sorted by innovation number. New genes nearly always have the
+	 * highest innovation numbers, but the numbering starts again when a saved simulation is loaded.
+	 */
+	private void addSynapseGenes(SynapseGene ... genes) {
+		int originalLen = synapseGenes.length;
+		synapseGenes = Arrays.copyOf(synapseGenes, originalLen + genes.length);
+		for (int i = 0; i < genes.length; i++) {
+			int j = originalLen + i;
+			while (j > 0 && synapseGenes[j - 1].getInnovation() > genes[i].getInnovation()) {
+				synapseGenes[j] = synapseGenes[j - 1];
+				j--;
+			}
+			synapseGenes[j] = genes[i];
+		}
 	}
 
 	private void createHiddenBetween(SynapseGene g) {
@@ -136,9 +151,7 @@ public class NetworkGenome implements Serializable
 		SynapseGene inConnection = new SynapseGene(g.getIn(), n, 1f);
 		SynapseGene outConnection = new SynapseGene(n, g.getOut(), g.getWeight());
 
-		synapseGenes = Arrays.copyOf(synapseGenes, synapseGenes.length + 2);
-		synapseGenes[synapseGenes.length - 2] = inConnection;
-		synapseGenes[synapseGenes.length - 1] = outConnection;
+		addSynapseGenes(inConnection, outConnection);
 
 		g.setDisabled(true);
 	}
@@ -161,8 +174,7 @@ public class NetworkGenome implements Serializable
 		int geneIndex = getSynapseGeneIndex(in, out);
 
 		if (geneIndex == -1) {
-			synapseGenes = Arrays.copyOf(synapseGenes, synapseGenes.length + 1);
-			synapseGenes[synapseGenes.length - 1] = new SynapseGene(in, out);
+			addSynapseGenes(new SynapseGene(in, out));
 		} else {
 			SynapseGene g = synapseGenes[geneIndex];
 			if (random.nextBoolean())
@@ -188,68 +200,80 @@ public class NetworkGenome implements Serializable
 		mutateConnection(in, out);
 	}
 	
+	/**
+	 * Merges the two genomes' synapse genes in order of innovation number. Genes that both genomes have are
+	 * taken from either at random; genes that only one has are kept if they come from a sensor, or else
+	 * half of the time.
+	 */
 	public NetworkGenome crossover(NetworkGenome other)
 	{
-		Map<Integer, SynapseGene> myConnections = Arrays.stream(synapseGenes)
-				.collect(Collectors.toMap(SynapseGene::getInnovation, Function.identity()));
-		Map<Integer, SynapseGene> theirConnections = Arrays.stream(other.synapseGenes)
-				.collect(Collectors.toMap(SynapseGene::getInnovation, Function.identity()));
-
-		Set<Integer> innovationNumbers = new HashSet<>();
-		innovationNumbers.addAll(myConnections.keySet());
-		innovationNumbers.addAll(theirConnections.keySet());
-
-		HashSet<SynapseGene> childSynapses = new HashSet<>();
-
-		for (int innovation : innovationNumbers) {
-			boolean iContain = myConnections.containsKey(innovation);
-			boolean theyContain = theirConnections.containsKey(innovation);
+		SynapseGene[] mine = synapseGenes, theirs = other.synapseGenes;
+		SynapseGene[] childSynapses = new SynapseGene[mine.length + theirs.length];
+		// Different innovations can connect the same neurons, in which case the child keeps the first
+		Set<SynapseGene> connections = new HashSet<>();
+		int nChildSynapses = 0, maxId = 0;
+
+		int i = 0, j = 0;
+		while (i < mine.length || j < theirs.length) {
 			SynapseGene g;
-			if (iContain && theyContain) {
-				g = Simulation.RANDOM.nextBoolean() ?
-						myConnections.get(innovation) :
-						theirConnections.get(innovation);
+			if (j == theirs.length || (i < mine.length && mine[i].getInnovation() < theirs[j].getInnovation())) {
+				g = mine[i++];
+				if (!g.getIn().getType().equals(Neuron.Type.SENSOR) && !Simulation.RANDOM.nextBoolean())
+					continue;
+			} else if (i == mine.length || theirs[j].getInnovation() < mine[i].getInnovation()) {
+				g = theirs[j++];
+				if (!g.getIn().getType().equals(Neuron.Type.SENSOR) && !Simulation.RANDOM.nextBoolean())
+					continue;
+			} else {
+				g = Simulation.RANDOM.nextBoolean() ? mine[i] : theirs[j];
+				i++;
+				j++;
 				if (g.isDisabled() && Simulation.RANDOM.nextFloat() < Settings.globalMutationChance)
 					g.setDisabled(false);
-				childSynapses.add(g);
-				continue;
-
-			} else if (iContain) {
-				g = myConnections.get(innovation);
-			} else {
-				g = theirConnections.get(innovation);
 			}
-
-			if (g.getIn().getType().equals(Neuron.Type.SENSOR) || Simulation.RANDOM.nextBoolean())
-				childSynapses.add(g);
+			if (connections.add(g)) {
+				childSynapses[nChildSynapses++] = g;
+				maxId = Math.max(maxId, Math.max(g.getIn().getId(), g.getOut().getId()));
+			}
 		}
 
-		SynapseGene[] childSynapseArray = childSynapses.toArray(new SynapseGene[0]);
-
-		Set<NeuronGene> neuronGenes = childSynapses.stream()
-				.flatMap(s -> Stream.of(s.getIn(), s.getOut()))
-				.collect(Collectors.toSet());
-
-		NeuronGene[] childSensorGenes = neuronGenes.stream()
-				.filter(n -> n.getType().equals(Neuron.Type.SENSOR))
-				.sorted(Comparator.comparingInt(NeuronGene::getId))
-				.toArray(NeuronGene[]::new);
-
-		NeuronGene[] childOutputGenes = neuronGenes.stream()
-				.filter(n -> n.getType().equals(Neuron.Type.OUTPUT))
-				.sorted(Comparator.comparingInt(NeuronGene::getId))
-				.toArray(NeuronGene[]::new);
+		// The child has the neurons that its synapses connect, in order of id
+		NeuronGene[] neurons = new NeuronGene[maxId + 1];
+		int nChildSensors = 0, nChildOutputs = 0, nChildHidden = 0;
+		for (int k = 0; k < nChildSynapses; k++) {
+			for (NeuronGene n : new NeuronGene[]{childSynapses[k].getIn(), childSynapses[k].getOut()}) {
+				if (neurons[n.getId()] != null)
+					continue;
+				neurons[n.getId()] = n;
+				if (n.getType().equals(Neuron.Type.SENSOR))
+					nChildSensors++;
+				else if (n.getType().equals(Neuron.Type.OUTPUT))
+					nChildOutputs++;
+				else
+					nChildHidden++;
+			}
+		}
 
-		NeuronGene[] childHiddenGenes = neuronGenes.stream()
-				.filter(n -> n.getType().equals(Neuron.Type.HIDDEN))
-				.sorted(Comparator.comparingInt(NeuronGene::getId))
-				.toArray(NeuronGene[]::new);
+		NeuronGene[] childSensorGenes = new NeuronGene[nChildSensors];
+		NeuronGene[] childOutputGenes = new NeuronGene[nChildOutputs];
+		NeuronGene[] childHiddenGenes = new NeuronGene[nChildHidden];
+		nChildSensors = nChildOutputs = nChildHidden = 0;
+		for (NeuronGene n : neurons) {
+			if (n == null)
+				continue;
+			if (n.getType().equals(Neuron.Type.SENSOR))
+				childSensorGenes[nChildSensors++] = n;
+			else if (n.getType().equals(Neuron.Type.OUTPUT))
+				childOutputGenes[nChildOutputs++] = n;
+			else
+				childHiddenGenes[nChildHidden++] = n;
+		}
 
 		return new NetworkGenome(
 				childSensorGenes,
 				childOutputGenes,
 				childHiddenGenes,
-				childSynapseArray,
+				Arrays.copyOf(childSynapses, nChildSynapses),
 				defaultActivation
 		);
 	}
@@ -267,47 +291,121 @@ public class NetworkGenome implements Serializable
 
 	public NeuralNetwork phenotype()
 	{
+		return phenotype(new float[0]);
+	}
 
-		Neuron[] neurons = new Neuron[maxNeuronId() + 1];
-
-		for (NeuronGene g : sensorNeuronGenes) {
-
-			Neuron[] inputs = new Neuron[0];
-			float[] weights = new float[0];
-
-			neurons[g.getId()] = new Neuron(
-					g.getId(), inputs, weights, g.getType(), g.getActivation(), g.getLabel()
-			);
+	/**
+	 * Builds the network, leaving out whatever cannot change its outputs: disabled synapses, neurons with no
+	 * path to an output, and sensors that are always given the same value, whose values are multiplied into
+	 * the weights of their synapses instead. Each neuron's inputs keep the order of its synapse genes, which is
+	 * the order they were added in for a genome that has only been mutated. A crossover child's genes are in
+	 * order of innovation number instead, so its sums may round differently than they once did.
+	 * @param constantInputs values that the first inputs will always be set to
+	 */
+	public NeuralNetwork phenotype(float ... constantInputs)
+	{
+		int size = maxNeuronId() + 1;
+		NeuronGene[] genes = new NeuronGene[size];
+		for (NeuronGene[] geneArray : new NeuronGene[][]{sensorNeuronGenes, hiddenNeuronGenes, outputNeuronGenes})
+			for (NeuronGene g : geneArray)
+				genes[g.getId()] = g;
+		for (NeuronGene g : genes)
+			if (g == null)
+				throw new IllegalArgumentException("Cannot handle null neurons.");
+
+		// Sensors take the inputs in order of their ids
+		int[] inputSlot = new int[size];
+		int nInputs = 0;
+		for (int id = 0; id < size; id++)
+			inputSlot[id] = genes[id].getType().equals(Neuron.Type.SENSOR) ? nInputs++ : -1;
+
+		// The enabled inputs of each neuron laid out contiguously, in the order of the synapse genes
+		int[] inputStart = new int[size + 1];
+		int nSynapses = 0;
+		for (SynapseGene g : synapseGenes) {
+			if (!g.isDisabled()) {
+				inputStart[g.getOut().getId() + 1]++;
+				nSynapses++;
+			}
 		}
+		for (int i = 0; i < size; i++)
+			inputStart[i + 1] += inputStart[i];
 
-		int[] inputCounts = new int[neurons.length];
-		Arrays.fill(inputCounts, 0);
-
-		for (SynapseGene g : synapseGenes)
-			inputCounts[g.getOut().getId()]++;
-
-		for (int i = 0; i < hiddenNeuronGenes.length + outputNeuronGenes.length; i++) {
-			NeuronGene g;
-			if (i < hiddenNeuronGenes.length)
-				g = hiddenNeuronGenes[i];
-			else g = outputNeuronGenes[i - hiddenNeuronGenes.length];
+		int[] inputCounts = new int[size];
+		int[] inputIndex = new int[nSynapses];
+		float[] weights = new float[nSynapses];
+		for (SynapseGene g : synapseGenes) {
+			if (g.isDisabled())
+				continue;
+			int out = g.getOut().getId();
+			int k = inputStart[out] + inputCounts[out]++;
+			inputIndex[k] = g.getIn().getId();
+			weights[k] = g.getWeight();
+		}
 
-			Neuron[] inputs = new Neuron[inputCounts[g.getId()]];
-			float[] weights = new float[inputCounts[g.getId()]];
+		// Work back from the outputs to find the neurons that can affect them
+		boolean[] live = new boolean[size];
+		int[] stack = new int[size];
+		int top = 0;
+		for (NeuronGene g : outputNeuronGenes) {
+			live[g.getId()] = true;
+			stack[top++] = g.getId();
+		}
+		while (top > 0) {
+			int id = stack[--top];
+			for (int k = inputStart[id]; k < inputStart[id + 1]; k++) {
+				if (!live[inputIndex[k]]) {
+					live[inputIndex[k]] = true;
+					stack[top++] = inputIndex[k];
+				}
+			}
+		}
 
-			neurons[g.getId()] = new Neuron(
-					g.getId(), inputs, weights, g.getType(), g.getActivation(), g.getLabel()
-			);
+		int[] compactId = new int[size];
+		int compactSize = 0;
+		for (int id = 0; id < size; id++) {
+			boolean constant = inputSlot[id] >= 0 && inputSlot[id] < constantInputs.length;
+			compactId[id] = live[id] && !constant ? compactSize++ : -1;
 		}
 
-		Arrays.fill(inputCounts, 0);
-		for (SynapseGene g : synapseGenes) {
-			int i = inputCounts[g.getOut().getId()]++;
-			neurons[g.getOut().getId()].getInputs()[i] = neurons[g.getIn().getId()];
-			neurons[g.getOut().getId()].getWeights()[i] = g.getWeight();
+		Neuron.Type[] types = new Neuron.Type[compactSize];
+		Neuron.Activation[] activations = new Neuron.Activation[compactSize];
+		String[] labels = new String[compactSize];
+		int[] compactInputStart = new int[compactSize + 1];
+		int[] compactInputIndex = new int[nSynapses];
+		float[] compactWeights = new float[nSynapses];
+		int n = 0;
+		for (int id = 0; id < size; id++) {
+			int i = compactId[id];
+			if (i < 0)
+				continue;
+			types[i] = genes[id].getType();
+			activations[i] = genes[id].getActivation();
+			labels[i] = genes[id].getLabel();
+			for (int k = inputStart[id]; k < inputStart[id + 1]; k++) {
+				int in = inputIndex[k];
+				if (compactId[in] >= 0) {
+					compactInputIndex[n] = compactId[in];
+					compactWeights[n++] = weights[k];
+				} else {
+					// Read from the network's slot of constant 1, in the same place among the inputs
+					compactInputIndex[n] = compactSize;
+					compactWeights[n++] = constantInputs[inputSlot[in]] * weights[k];
+				}
+			}
+			compactInputStart[i + 1] = n;
 		}
 
-		return new NeuralNetwork(neurons);
+		int[] inputNeurons = new int[nInputs];
+		for (int id = 0; id < size; id++)
+			if (inputSlot[id] >= 0)
+				inputNeurons[inputSlot[id]] = compactId[id];
+
+		return new NeuralNetwork(
+				types, activations, labels,
+				compactInputStart, Arrays.copyOf(compactInputIndex, n), Arrays.copyOf(compactWeights, n),
+				inputNeurons
+		);
 	}
 
 	public float distance(NetworkGenome other)
@@ -0,0 +1,87 @@
+package protoevo.neat;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The neurons of a {@link NeuralNetwork} as objects, with their depths and where they are drawn.
+ * Only needed by the UI, so the network builds it on demand.
+ */
+public class NetworkView
+{
+    private final Neuron[] neurons;
+    private final Neuron[] inputNeurons;
+    private final Neuron[] outputNeurons;
+    private final int depth;
+    private boolean computedGraphics = false;
+    private int nodeSpacing;
+
+    NetworkView(Neuron[] neurons, Neuron[] inputNeurons, Neuron[] outputNeurons) {
+        this.neurons = neurons;
+        this.inputNeurons = inputNeurons;
+        this.outputNeurons = outputNeurons;
+        depth = calculateDepth();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int calculateDepth() {
+        boolean[] visited = new boolean[neurons.length];
+        Arrays.fill(visited, false);
+        int depth = calculateDepth(outputNeurons, visited);
+
+        for (Neuron n : outputNeurons)
+            n.setDepth(depth);
+
+        for (Neuron n : inputNeurons)
+            n.setDepth(0);
+
+        for (Neuron n : neurons)
+            if (n.getDepth() == -1)
+                n.setDepth(depth);
+
+        return depth;
+    }
+
+    private int calculateDepth(Neuron[] explore, boolean[] visited) {
+
+        List<Neuron> unexplored = Arrays.stream(explore)
+                .filter(n -> !visited[n.getId()])
+                .collect(Collectors.toList());
+
+        for (Neuron n : explore)
+            visited[n.getId()] = true;
+
+        int maxDepth = 0;
+
+        for (Neuron n : unexplored) {
+            int neuronDepth = 1 + calculateDepth(n.getInputs(), visited);
+            n.setDepth(neuronDepth);
+            maxDepth = Math.max(maxDepth, neuronDepth);
+        }
+
+        return maxDepth;
+    }
+
+    public Neuron[] getNeurons() {
+        return neurons;
+    }
+
+    public boolean hasComputedGraphicsPositions() {
+        return computedGraphics;
+    }
+
+    public void setComputedGraphicsPositions(boolean computedGraphics) {
+        this.computedGraphics = computedGraphics;
+    }
+
+    public void setGraphicsNodeSpacing(int nodeSpacing) {
+        this.nodeSpacing = nodeSpacing;
+    }
+
+    public int getGraphicsNodeSpacing() {
+        return nodeSpacing;
+    }
+}
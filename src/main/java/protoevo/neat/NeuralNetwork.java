@@ -2,180 +2,286 @@ package protoevo.neat;
 
 import java.io.Serializable;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+/**
+ * A network compiled into flat arrays, with the inputs of each neuron stored contiguously
+ * in {@link #inputIndex} and {@link #weight} between {@code inputStart[i]} and {@code inputStart[i + 1]}.
+ * An input index of {@link #size} reads a slot that always holds 1, for a constant input whose value has been
+ * multiplied into its weight, so that each neuron still sums its inputs in the order of its synapses.
+ * The {@link Neuron} objects and everything else only needed to draw the network live in a {@link NetworkView},
+ * built the first time it is asked for.
+ */
 public class NeuralNetwork implements Serializable
 {
-    private static final long serialVersionUID = 1L;
-
-    private final Neuron[] outputNeurons;
-    private final Neuron[] inputNeurons;
+    private static final long serialVersionUID = 3L;
+
+    private final int size;
+    private final float[] state, nextState, lastState;
+    private final int[] inputStart;
+    private final int[] inputIndex;
+    private final float[] weight;
+    private final Neuron.Activation[] activations;
+    // Ordinal of each neuron's activation, for comparing topologies
+    private final byte[] opcodes;
+    private final Neuron.Type[] types;
+    private final String[] labels;
+    private final boolean[] connectedToOutput;
+    // Neuron taking each input, or -1 if the input is not needed
+    private final int[] inputNeurons;
+    private final int[] outputNeurons;
     private final float[] outputs;
-    private final Neuron[] neurons;
-    private final int depth;
-    private final int nInputs;
-    private boolean computedGraphics = false;
-    private int nodeSpacing;
+    private transient NetworkView view;
+    private transient Topology topology;
+
+    /**
+     * Everything about a network but its weights and states, for grouping networks that can be ticked together.
+     */
+    static final class Topology {
+        private final int[] inputStart, inputIndex, inputNeurons, outputNeurons;
+        private final byte[] opcodes;
+        private final int hash;
+
+        private Topology(NeuralNetwork network) {
+            inputStart = network.inputStart;
+            inputIndex = network.inputIndex;
+            inputNeurons = network.inputNeurons;
+            outputNeurons = network.outputNeurons;
+            opcodes = network.opcodes;
+            hash = Objects.hash(
+                    Arrays.hashCode(inputStart), Arrays.hashCode(inputIndex), Arrays.hashCode(opcodes),
+                    Arrays.hashCode(inputNeurons), Arrays.hashCode(outputNeurons)
+            );
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Topology))
+                return false;
+            Topology other = (Topology) o;
+            return hash == other.hash
+                    && Arrays.equals(inputStart, other.inputStart)
+                    && Arrays.equals(inputIndex, other.inputIndex)
+                    && Arrays.equals(opcodes, other.opcodes)
+                    && Arrays.equals(inputNeurons, other.inputNeurons)
+                    && Arrays.equals(outputNeurons, other.outputNeurons);
+        }
 
-    public NeuralNetwork(Neuron[] neurons) {
-        this.neurons = neurons;
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param types type of each neuron, indexed by neuron id
+     * @param activations activation of each neuron
+     * @param labels label of each neuron, which may be null
+     * @param inputStart offset of each neuron's first input in the input arrays, followed by the total number of inputs
+     * @param inputIndex id of the neuron at each input, or the number of neurons for a constant input
+     * @param weight weight of each input, times the input's value for a constant input
+     * @param inputNeurons id of the sensor neuron taking each of the network's inputs, or -1 to ignore the input
+     */
+    public NeuralNetwork(Neuron.Type[] types, Neuron.Activation[] activations, String[] labels,
+                         int[] inputStart, int[] inputIndex, float[] weight, int[] inputNeurons) {
+        this.size = types.length;
+        this.types = types;
+        this.activations = activations;
+        this.labels = labels;
+        this.inputStart = inputStart;
+        this.inputIndex = inputIndex;
+        this.weight = weight;
+        this.inputNeurons = inputNeurons;
 
-        int nSensors = 0;
         int nOutputs = 0;
-        for (Neuron neuron : neurons) {
-            if (neuron == null)
+        opcodes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            if (types[i] == null)
                 throw new IllegalArgumentException("Cannot handle null neurons.");
-            else if (neuron.getType().equals(Neuron.Type.SENSOR))
-                nSensors++;
-            else if (neuron.getType().equals(Neuron.Type.OUTPUT))
+            else if (types[i].equals(Neuron.Type.OUTPUT))
                 nOutputs++;
+            opcodes[i] = (byte) activations[i].ordinal();
         }
-        this.nInputs = nSensors;
-
-        inputNeurons = new Neuron[nInputs];
-        int i = 0;
-        for (Neuron neuron : neurons)
-            if (neuron.getType().equals(Neuron.Type.SENSOR)) {
-                inputNeurons[i] = neuron;
-                i++;
-            }
-
-        outputNeurons = new Neuron[nOutputs];
-        i = 0;
-        for (Neuron neuron : neurons)
-            if (neuron.getType().equals(Neuron.Type.OUTPUT)) {
-                outputNeurons[i] = neuron;
-                i++;
-            }
 
+        outputNeurons = new int[nOutputs];
+        int o = 0;
+        for (int i = 0; i < size; i++)
+            if (types[i].equals(Neuron.Type.OUTPUT))
+                outputNeurons[o++] = i;
+
+        state = new float[size + 1];
+        nextState = new float[size + 1];
+        state[size] = nextState[size] = 1;
+        lastState = new float[size];
+        connectedToOutput = new boolean[size];
+        Arrays.fill(connectedToOutput, true);
         outputs = new float[nOutputs];
-        Arrays.fill(outputs, 0f);
-
-        depth = calculateDepth();
     }
 
-    public int getDepth() {
-        return depth;
+    public void setInput(float ... values) {
+        for (int i = 0; i < values.length; i++)
+            if (inputNeurons[i] >= 0)
+                state[inputNeurons[i]] = values[i];
     }
 
-    public int calculateDepth() {
-        boolean[] visited = new boolean[neurons.length];
-        Arrays.fill(visited, false);
-        int depth = calculateDepth(outputNeurons, visited);
-
-        for (Neuron n : outputNeurons)
-            n.setDepth(depth);
-
-        for (Neuron n : inputNeurons)
-            n.setDepth(0);
-
-        for (Neuron n : neurons)
-            if (n.getDepth() == -1)
-                n.setDepth(depth);
-
-        return depth;
+    public void tick()
+    {
+        for (int i = 0; i < size; i++) {
+            float z = 0;
+            for (int k = inputStart[i]; k < inputStart[i + 1]; k++)
+                z += state[inputIndex[k]] * weight[k];
+            nextState[i] = activations[i].apply(z);
+        }
+        System.arraycopy(state, 0, lastState, 0, size);
+        System.arraycopy(nextState, 0, state, 0, size);
     }
 
-    private int calculateDepth(Neuron[] explore, boolean[] visited) {
-
-        List<Neuron> unexplored = Arrays.stream(explore)
-                .filter(n -> !visited[n.getId()])
-                .collect(Collectors.toList());
-
-        for (Neuron n : explore)
-            visited[n.getId()] = true;
-
-        int maxDepth = 0;
-
-        for (Neuron n : unexplored) {
-            int neuronDepth = 1 + calculateDepth(n.getInputs(), visited);
-            n.setDepth(neuronDepth);
-            maxDepth = Math.max(maxDepth, neuronDepth);
+    /**
+     * Ticks networks of the same topology together, with the loop over the networks innermost
+     * so that it runs over contiguous memory. Each network ends up exactly as if it had been ticked alone.
+     * @param batch networks sharing the topology of the first
+     * @param count number of networks in the batch
+     * @param state buffer of at least {@code count * (getSize() + 1)} floats
+     * @param weight buffer of at least {@code count} times the number of inputs
+     * @param sum buffer of at least {@code count} floats
+     */
+    static void tick(NeuralNetwork[] batch, int count, float[] state, float[] weight, float[] sum) {
+        NeuralNetwork first = batch[0];
+        int size = first.size, nInputs = first.inputIndex.length;
+        for (int b = 0; b < count; b++) {
+            NeuralNetwork network = batch[b];
+            for (int i = 0; i <= size; i++)
+                state[i * count + b] = network.state[i];
+        }
+        for (int k = 0; k < nInputs; k++)
+            for (int b = 0; b < count; b++)
+                weight[k * count + b] = batch[b].weight[k];
+
+        for (int i = 0; i < size; i++) {
+            Arrays.fill(sum, 0, count, 0);
+            for (int k = first.inputStart[i]; k < first.inputStart[i + 1]; k++) {
+                int in = first.inputIndex[k] * count, w = k * count;
+                for (int b = 0; b < count; b++)
+                    sum[b] += state[in + b] * weight[w + b];
+            }
+            Neuron.Activation activation = first.activations[i];
+            for (int b = 0; b < count; b++)
+                batch[b].nextState[i] = activation.apply(sum[b]);
         }
 
-        return maxDepth;
+        for (int b = 0; b < count; b++) {
+            NeuralNetwork network = batch[b];
+            System.arraycopy(network.state, 0, network.lastState, 0, size);
+            System.arraycopy(network.nextState, 0, network.state, 0, size);
+        }
     }
 
-    public void setInput(float ... values) {
-        for (int i = 0; i < values.length; i++)
-            inputNeurons[i].setState(values[i]);
+    Topology getTopology() {
+        if (topology == null)
+            topology = new Topology(this);
+        return topology;
     }
 
-    public void tick()
-    {
-        for (Neuron n : neurons) n.tick();
-        for (Neuron n : neurons) n.update();
+    /**
+     * Swaps the network's topology for an equal one, so that later comparisons are by identity.
+     */
+    void shareTopology(Topology topology) {
+        this.topology = topology;
     }
 
     public float[] outputs()
     {
         for (int i = 0; i < outputNeurons.length; i++)
-            outputs[i] = outputNeurons[i].getState();
+            outputs[i] = state[outputNeurons[i]];
         return outputs;
     }
 
     @Override
     public String toString()
     {
-        return Stream.of(neurons)
-                .map(Neuron::toString)
-                .collect(Collectors.joining("\n"));
+        StringJoiner joiner = new StringJoiner("\n");
+        for (int i = 0; i < size; i++) {
+            StringBuilder s = new StringBuilder(String.format("id:%d, state:%.1f", i, state[i]));
+            s.append(", connections: [");
+            for (int k = inputStart[i]; k < inputStart[i + 1]; k++)
+                s.append(String.format("(%d, %.1f)", k - inputStart[i], weight[k]));
+            s.append("]");
+            joiner.add(s);
+        }
+        return joiner.toString();
     }
 
     public int getInputSize() {
-        return nInputs;
+        return inputNeurons.length;
     }
 
     public int getSize() {
-        return neurons.length;
+        return size;
     }
 
-    public Neuron[] getNeurons() {
-        return neurons;
+    int getNumSynapses() {
+        return inputIndex.length;
     }
 
-    public boolean hasComputedGraphicsPositions() {
-        return computedGraphics;
+    public float getState(int id) {
+        return state[id];
     }
 
-    public void setComputedGraphicsPositions(boolean computedGraphics) {
-        this.computedGraphics = computedGraphics;
+    public void setState(int id, float s) {
+        state[id] = s;
     }
 
-    public void setGraphicsNodeSpacing(int nodeSpacing) {
-        this.nodeSpacing = nodeSpacing;
+    public float getLastState(int id) {
+        return lastState[id];
     }
 
-    public int getGraphicsNodeSpacing() {
-        return nodeSpacing;
+    public boolean isConnectedToOutput(int id) {
+        return connectedToOutput[id];
     }
 
-    public void disableInputsFrom(int i) {
-        for (int idx = i; idx < inputNeurons.length; idx++)
-            inputNeurons[idx].setConnectedToOutput(false);
-//        disableOnlyConnectedToDisabled();
-    }
-
-    private void disableOnlyConnectedToDisabled() {
-        boolean check = true;
-        while (check) {
-            check = false;
-            for (Neuron neuron : neurons) {
-                if (!neuron.isConnectedToOutput())
-                    continue;
-
-                boolean allInputsDisabled = true;
-                for (Neuron input : neuron.getInputs())
-                    if (!input.isConnectedToOutput()) {
-                        allInputsDisabled = false;
-                        break;
+    public void setConnectedToOutput(int id, boolean connected) {
+        connectedToOutput[id] = connected;
+    }
+
+    public NetworkView getView() {
+        if (view == null) {
+            Neuron[] neurons = new Neuron[size];
+            // Constant inputs have no neuron to draw, so are left out
+            for (int i = 0; i < size; i++) {
+                int nInputs = 0;
+                for (int k = inputStart[i]; k < inputStart[i + 1]; k++)
+                    if (inputIndex[k] < size)
+                        nInputs++;
+                neurons[i] = new Neuron(
+                        this, i, new Neuron[nInputs], new float[nInputs], types[i], activations[i], labels[i]
+                );
+            }
+            for (int i = 0; i < size; i++) {
+                int n = 0;
+                for (int k = inputStart[i]; k < inputStart[i + 1]; k++) {
+                    if (inputIndex[k] < size) {
+                        neurons[i].getInputs()[n] = neurons[inputIndex[k]];
+                        neurons[i].getWeights()[n++] = weight[k];
                     }
-                if (allInputsDisabled) {
-                    neuron.setConnectedToOutput(false);
-                    check = true;
                 }
             }
+
+            Neuron[] inputs = Arrays.stream(neurons)
+                    .filter(n -> n.getType().equals(Neuron.Type.SENSOR))
+                    .toArray(Neuron[]::new);
+            Neuron[] outputs = new Neuron[outputNeurons.length];
+            for (int i = 0; i < outputs.length; i++)
+                outputs[i] = neurons[outputNeurons[i]];
+
+            view = new NetworkView(neurons, inputs, outputs);
         }
+        return view;
+    }
+
+    public void disableInputsFrom(int i) {
+        for (int idx = i; idx < inputNeurons.length; idx++)
+            if (inputNeurons[idx] >= 0)
+                connectedToOutput[inputNeurons[idx]] = false;
     }
 }
@@ -1,18 +1,30 @@
 package protoevo.neat;
 
+import protoevo.core.Settings;
+import protoevo.utils.CachedMath;
+
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.function.Function;
 
 /**
  * Created by dylan on 26/05/2017.
+ * A neuron of a {@link NetworkView}, whose state lives in the network it views.
  */
 public class Neuron implements Comparable<Neuron>, Serializable {
 
-    public interface Activation extends Function<Float, Float>, Serializable {
-        Activation SIGMOID = z -> 1 / (1 + (float) Math.exp(-z));
-        Activation LINEAR = z -> z;
-        Activation TANH = x -> (float) Math.tanh(x);
+    public enum Activation {
+        SIGMOID, LINEAR, TANH;
+
+        public float apply(float z) {
+            switch (this) {
+                case SIGMOID:
+                    return Settings.fastActivationFunctions ? CachedMath.sigmoid(z) : 1 / (1 + (float) Math.exp(-z));
+                case TANH:
+                    return Settings.fastActivationFunctions ? CachedMath.tanh(z) : (float) Math.tanh(z);
+                default:
+                    return z;
+            }
+        }
     }
 
     public enum Type implements Serializable {
@@ -31,43 +43,27 @@ public class Neuron implements Comparable<Neuron>, Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private final NeuralNetwork network;
     private final Neuron[] inputs;
     private final float[] weights;
     private Type type;
     private final int id;
-    private float state = 0, lastState = 0, nextState = 0;
     private float learningRate = 0;
     private Activation activation;
     private int depth = -1;
     private int graphicsX = -1, graphicsY = -1;
-    private boolean connectedToOutput = true;
     private final String label;
 
-    public Neuron(int id, Neuron[] inputs, float[] weights, Type type, Activation activation, String label)
+    public Neuron(NeuralNetwork network, int id, Neuron[] inputs, float[] weights,
+                  Type type, Activation activation, String label)
     {
+        this.network = network;
         this.id = id;
         this.inputs = inputs;
         this.weights = weights;
         this.type = type;
         this.activation = activation;
         this.label = label;
-
-        if (type.equals(Type.OUTPUT))
-            connectedToOutput = true;
-    }
-
-    void tick()
-    {
-        nextState = 0.0f;
-        for (int i = 0; i < inputs.length; i++)
-            nextState += inputs[i].getState() * weights[i];
-        nextState = activation.apply(nextState);
-    }
-
-    void update()
-    {
-        lastState = state;
-        state = nextState;
     }
 
     @Override
@@ -82,15 +78,15 @@ public class Neuron implements Comparable<Neuron>, Serializable {
     }
 
     public float getState() {
-        return state;
+        return network.getState(id);
     }
 
     public float getLastState() {
-        return lastState;
+        return network.getLastState(id);
     }
 
     public Neuron setState(float s) {
-        state = s;
+        network.setState(id, s);
         return this;
     }
 
@@ -132,7 +128,7 @@ public class Neuron implements Comparable<Neuron>, Serializable {
     @Override
     public String toString()
     {
-        StringBuilder s = new StringBuilder(String.format("id:%d, state:%.1f", id, state));
+        StringBuilder s = new StringBuilder(String.format("id:%d, state:%.1f", id, getState()));
         s.append(", connections: [");
         for (int i = 0; i < weights.length; i++)
             s.append(String.format("(%d, %.1f)", i, weights[i]));
@@ -149,11 +145,11 @@ public class Neuron implements Comparable<Neuron>, Serializable {
     }
 
     public boolean isConnectedToOutput() {
-        return connectedToOutput;
+        return network.isConnectedToOutput(id);
     }
 
     public void setConnectedToOutput(boolean connectedToOutput) {
-        this.connectedToOutput = connectedToOutput;
+        network.setConnectedToOutput(id, connectedToOutput);
     }
 
     public void setGraphicsPosition(int x, int y) {
@@ -108,7 +108,7 @@ public class SimulationController implements Controller
 						float strength = 1 / 100f;
 						dir.setLength(strength * p * tank.getRadius() / 8);
 						cell.physicsStep(Settings.simulationUpdateDelta);
-						cell.getPos().translate(dir);
+						cell.translate(dir);
 						dist = cellPos.sub(pos).len2();
 						i++;
 					}
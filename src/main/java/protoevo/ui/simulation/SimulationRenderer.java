@@ -363,30 +363,25 @@ public class SimulationRenderer extends Canvas {
 			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 
 			ChunkManager chunkManager = tank.getChunkManager();
-			Iterator<Collidable> collisionEntities = chunkManager.broadCollisionDetection(
-					track.getPos(), track.getRadius());
-			collisionEntities.forEachRemaining(
-					o -> {
+			chunkManager.forEachCollidableInRange(
+					track.getX(), track.getY(), track.getRadius(), g,
+					(graphics, o, d) -> {
 						stats.put("Broad Collision", 1 + stats.getOrDefault("Broad Collision", 0));
-						drawCollisionBounds(g, o, Color.RED.darker());
-					}
-			);
+						drawCollisionBounds(graphics, o, Color.RED.darker());
+					}, 0);
 
 			if (track instanceof Protozoan) {
 				Protozoan p = (Protozoan) track;
 				drawCollisionBounds(g, track, p.getInteractRange(), Color.WHITE.darker());
 
-				Iterator<Cell> interactCells = chunkManager.broadEntityDetection(
-						track.getPos(), p.getInteractRange());
-
-
-				while (interactCells.hasNext()) {
-					Cell cell = interactCells.next();
-					if (p.cullFromRayCasting(cell))
-						continue;
-					stats.put("Broad Interact", 1 + stats.getOrDefault("Broad Interact", 0));
-					drawCollisionBounds(g, cell, 1.1f * cell.getRadius(), Color.WHITE.darker());
-				}
+				chunkManager.forEachCellInRange(
+						track.getX(), track.getY(), p.getInteractRange(), g,
+						(graphics, cell, d) -> {
+							if (p.cullFromRayCasting(cell))
+								return;
+							stats.put("Broad Interact", 1 + stats.getOrDefault("Broad Interact", 0));
+							drawCollisionBounds(graphics, cell, 1.1f * cell.getRadius(), Color.WHITE.darker());
+						}, 0);
 
 				for (Protozoan.ContactSensor sensor : p.getContactSensors()) {
 					Vector2 sensorPos = p.getSensorPosition(sensor);
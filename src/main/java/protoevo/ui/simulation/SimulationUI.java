@@ -8,7 +8,7 @@ import protoevo.biology.NNBrain;
 import protoevo.core.Application;
 import protoevo.core.Settings;
 import protoevo.core.Simulation;
-import protoevo.neat.NeuralNetwork;
+import protoevo.neat.NetworkView;
 import protoevo.neat.Neuron;
 import protoevo.biology.Cell;
 import protoevo.ui.Window;
@@ -277,7 +277,7 @@ public class SimulationUI implements ChangeListener {
 
 			if (tracked instanceof Protozoan && ((Protozoan) tracked).getBrain() instanceof NNBrain) {
 				NNBrain brain = (NNBrain) ((Protozoan) tracked).getBrain();
-				renderBrainNetwork(brain.network, g);
+				renderBrainNetwork(brain.network.getView(), g);
 			}
 		}
 
@@ -324,7 +324,7 @@ public class SimulationUI implements ChangeListener {
 			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
 	}
 
-	private void renderBrainNetwork(NeuralNetwork nn, Graphics2D g) {
+	private void renderBrainNetwork(NetworkView nn, Graphics2D g) {
 		int networkDepth = nn.getDepth();
 		int boxWidth = (int) (window.getWidth() / 2.0 - 1.2 * renderer.getTrackingScopeRadius());
 		int boxHeight = 3 * window.getHeight() / 4;
@@ -484,7 +484,7 @@ public class SimulationUI implements ChangeListener {
 		}
 	}
 
-	private void precomputeGraphicsPositions(NeuralNetwork nn,
+	private void precomputeGraphicsPositions(NetworkView nn,
 											 int boxXStart,
 											 int boxYStart,
 											 int boxWidth,
@@ -12,6 +12,16 @@ public class CachedMath {
             sin[i] = (float) Math.sin(2 * Math.PI * i / (float) precision);
         }
     }
+
+    // tanh sampled every 1/tanhSteps from 0 to tanhRange, beyond which it rounds to 1 within 3e-7
+    static final int tanhSteps = 128;
+    static final int tanhRange = 8;
+    static final float[] tanh = new float[tanhRange * tanhSteps + 2];
+    static {
+        for (int i = 0; i < tanh.length; i++)
+            tanh[i] = (float) Math.tanh(i / (double) tanhSteps);
+    }
+
     // Private function for table lookup
     private static float sinLookup(int a) {
         return a >= 0 ? sin[a % precision] : -sin[-a % precision];
@@ -25,4 +35,23 @@ public class CachedMath {
     public static float cos(float a) {
         return sinLookup((int)(((a + Math.PI / 2) * precision) / (2 * Math.PI)));
     }
+
+    /**
+     * tanh interpolated linearly between table entries, to within 6e-6.
+     */
+    public static float tanh(float x) {
+        float a = Math.abs(x) * tanhSteps;
+        if (a >= tanhRange * tanhSteps)
+            return x > 0 ? 1 : -1;
+        int i = (int) a;
+        float y = tanh[i] + (a - i) * (tanh[i + 1] - tanh[i]);
+        return x < 0 ? -y : y;
+    }
+
+    /**
+     * The logistic sigmoid, from the tanh table, to within 3e-6.
+     */
+    public static float sigmoid(float x) {
+        return 0.5f + 0.5f * tanh(0.5f * x);
+    }
 }
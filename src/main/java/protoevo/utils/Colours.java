@@ -0,0 +1,45 @@
+package protoevo.utils;
+
+/**
+ * Colours packed into an int as opaque ARGB, the same layout as {@code java.awt.Color.getRGB()}.
+ * The simulation passes colours around packed so that seeing something does not allocate,
+ * and only the UI turns them into {@code Color} objects.
+ */
+public final class Colours {
+
+    private Colours() {}
+
+    public static int rgb(int r, int g, int b) {
+        return 0xFF000000 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+    }
+
+    public static int red(int rgb) {
+        return (rgb >> 16) & 0xFF;
+    }
+
+    public static int green(int rgb) {
+        return (rgb >> 8) & 0xFF;
+    }
+
+    public static int blue(int rgb) {
+        return rgb & 0xFF;
+    }
+
+    /**
+     * @return each channel scaled by the factor, rounded down
+     */
+    public static int scale(int rgb, float factor) {
+        return rgb((int) (red(rgb) * factor), (int) (green(rgb) * factor), (int) (blue(rgb) * factor));
+    }
+
+    /**
+     * @return each channel moved the fraction t of the way from one colour to the other, rounded towards zero
+     */
+    public static int lerp(int from, int to, float t) {
+        return rgb(
+                (int) (red(from) + t * (red(to) - red(from))),
+                (int) (green(from) + t * (green(to) - green(from))),
+                (int) (blue(from) + t * (blue(to) - blue(from)))
+        );
+    }
+}
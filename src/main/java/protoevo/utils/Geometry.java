@@ -1,38 +1,78 @@
 package protoevo.utils;
 
+/**
+ * Geometry helpers. The scalar-argument versions allocate nothing, so they are the ones to use
+ * in the physics and interaction passes that run for every cell on every tick.
+ */
 public class Geometry {
 
-    public static float[] circleIntersectLineCoefficients(Vector2 dir, Vector2 x, float r) {
-        float a = dir.len2();
-        float b = -2*dir.dot(x);
-        float c = x.len2() - r*r;
+    /**
+     * Whether a circle crosses the line segment from the origin to (dirX, dirY) away from its end points.
+     * @param dirX x component of the segment
+     * @param dirY y component of the segment
+     * @param xX x position of the circle relative to the start of the segment
+     * @param xY y position of the circle relative to the start of the segment
+     * @param r radius of the circle
+     */
+    public static boolean doesLineIntersectCircle(float dirX, float dirY, float xX, float xY, float r) {
+        float a = dirX*dirX + dirY*dirY;
+        float b = -2*(dirX*xX + dirY*xY);
+        float c = xX*xX + xY*xY - r*r;
         float disc = b*b - 4*a*c;
         if (disc < 0)
-            return null;
+            return false;
 
         float t1 = (float) ((-b + Math.sqrt(disc)) / (2*a));
         float t2 = (float) ((-b - Math.sqrt(disc)) / (2*a));
-
-        return new float[]{t1, t2};
+        return lineIntersectCondition(t1, t2);
     }
 
-    public static boolean lineIntersectCondition(float[] coefs) {
-        if (coefs == null)
-            return false;
-        float t1 = coefs[0], t2 = coefs[1];
+    public static boolean lineIntersectCondition(float t1, float t2) {
         float eps = 1e-3f;
         return (eps < t1 && t1 < 1 - eps) || (eps < t2 && t2 < 1 - eps);
     }
 
     public static boolean doesLineIntersectCircle(Vector2[] line, Vector2 circlePos, float circleR) {
-        Vector2 dir = line[1].sub(line[0]);
-        Vector2 x = circlePos.sub(line[0]);
-        float[] intersectionCoefs = circleIntersectLineCoefficients(dir, x, circleR);
-        return lineIntersectCondition(intersectionCoefs);
+        return doesLineIntersectCircle(
+                line[1].getX() - line[0].getX(), line[1].getY() - line[0].getY(),
+                circlePos.getX() - line[0].getX(), circlePos.getY() - line[0].getY(),
+                circleR);
+    }
+
+    /**
+     * Where the segment from (x1, y1) along (dx1, dy1) crosses the segment from (x2, y2) along (dx2, dy2).
+     * @return the fraction of the way along the first segment at which they cross,
+     * or NaN if they do not cross strictly within both segments
+     */
+    public static float segmentsIntersectT(float x1, float y1, float dx1, float dy1,
+                                           float x2, float y2, float dx2, float dy2) {
+        float coef00 = dx1*dx1 + dy1*dy1;
+        float coef01 = -(dx1*dx2 + dy1*dy2);
+        float coef11 = dx2*dx2 + dy2*dy2;
+
+        // Same operation order as the Vector2 version this replaced, so rock generation and ray casts are unchanged
+        float const0 = (x2*dx1 + y2*dy1) - (x1*dx1 + y1*dy1);
+        float const1 = (x1*dx2 + y1*dy2) - (x2*dx2 + y2*dy2);
+
+        float det = coef00 * coef11 - coef01 * coef01;
+        if (det == 0)
+            return Float.NaN;
+
+        float t1 = (const0*coef11 - const1*coef01) / det;
+        float t2 = (-const0*coef01 + const1*coef00) / det;
+        if (0f < t1 && t1 < 1f && 0f < t2 && t2 < 1f)
+            return t1;
+        return Float.NaN;
+    }
+
+    public static boolean isPointInsideCircle(float circleX, float circleY, float radius, float x, float y) {
+        float dx = circleX - x;
+        float dy = circleY - y;
+        return dx*dx + dy*dy <= radius * radius;
     }
 
     public static boolean isPointInsideCircle(Vector2 circlePos, float radius, Vector2 p) {
-        return circlePos.sub(p).len2() <= radius * radius;
+        return isPointInsideCircle(circlePos.getX(), circlePos.getY(), radius, p.getX(), p.getY());
     }
 
     public static float getSphereVolume(float r) {
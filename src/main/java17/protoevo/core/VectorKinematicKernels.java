@@ -0,0 +1,111 @@
+package protoevo.core;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kinematic kernels using the Java Vector API, built by the {@code vector} Maven profile.
+ * Every lane does the same arithmetic, in the same order, as the scalar kernels, and branches
+ * become masked blends, so the results are bit-identical. Slots left over after the last full
+ * vector are handled by the scalar loops.
+ */
+public class VectorKinematicKernels extends KinematicKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public void integrate(float[] x, float[] y, float[] prevX, float[] prevY,
+                          float[] velX, float[] velY, float[] accX, float[] accY,
+                          float[] stepDelta, float[] dt, int n, float damping, float maxSpeed) {
+        int bound = SPECIES.loopBound(n);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            FloatVector h = FloatVector.fromArray(SPECIES, dt, i);
+            VectorMask<Float> stepping = h.compare(VectorOperators.NE, 0f);
+            if (!stepping.anyTrue())
+                continue;
+
+            FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector ppx = FloatVector.fromArray(SPECIES, prevX, i);
+            FloatVector ppy = FloatVector.fromArray(SPECIES, prevY, i);
+            VectorMask<Float> unset = ppx.test(VectorOperators.IS_NAN);
+            ppx = ppx.blend(px, unset);
+            ppy = ppy.blend(py, unset);
+
+            FloatVector vx = px.sub(ppx);
+            FloatVector vy = py.sub(ppy);
+            FloatVector last = FloatVector.fromArray(SPECIES, stepDelta, i);
+            last = last.blend(h, last.test(VectorOperators.IS_NAN));
+            FloatVector invLast = FloatVector.broadcast(SPECIES, 1f).div(last);
+            FloatVector newVelX = vx.mul(invLast);
+            FloatVector newVelY = vy.mul(invLast);
+            VectorMask<Float> rescale = last.compare(VectorOperators.NE, h);
+            FloatVector ratio = h.div(last);
+            vx = vx.blend(vx.mul(ratio), rescale);
+            vy = vy.blend(vy.mul(ratio), rescale);
+
+            FloatVector h2 = h.mul(h);
+            FloatVector maxTravel = h.mul(maxSpeed);
+            FloatVector maxTravel2 = maxTravel.mul(maxTravel);
+            FloatVector dx = vx.mul(damping).add(FloatVector.fromArray(SPECIES, accX, i).mul(h2));
+            FloatVector dy = vy.mul(damping).add(FloatVector.fromArray(SPECIES, accY, i).mul(h2));
+            FloatVector len2 = dx.mul(dx).add(dy.mul(dy));
+            VectorMask<Float> tooFast = len2.compare(VectorOperators.GT, maxTravel2);
+            FloatVector s = maxTravel.div(len2.lanewise(VectorOperators.SQRT));
+            dx = dx.blend(dx.mul(s), tooFast);
+            dy = dy.blend(dy.mul(s), tooFast);
+
+            FloatVector.fromArray(SPECIES, velX, i).blend(newVelX, stepping).intoArray(velX, i);
+            FloatVector.fromArray(SPECIES, velY, i).blend(newVelY, stepping).intoArray(velY, i);
+            FloatVector.fromArray(SPECIES, stepDelta, i).blend(h, stepping).intoArray(stepDelta, i);
+            FloatVector.fromArray(SPECIES, prevX, i).blend(px, stepping).intoArray(prevX, i);
+            FloatVector.fromArray(SPECIES, prevY, i).blend(py, stepping).intoArray(prevY, i);
+            px.blend(px.add(dx), stepping).intoArray(x, i);
+            py.blend(py.add(dy), stepping).intoArray(y, i);
+        }
+        integrate(x, y, prevX, prevY, velX, velY, accX, accY, stepDelta, dt, bound, n, damping, maxSpeed);
+    }
+
+    @Override
+    public void constrainToTank(float[] x, float[] y, float[] velX, float[] velY, float[] radius,
+                                int n, float tankRadius, boolean wrap) {
+        int bound = SPECIES.loopBound(n);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            FloatVector px = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector py = FloatVector.fromArray(SPECIES, y, i);
+            FloatVector r = FloatVector.fromArray(SPECIES, radius, i);
+            FloatVector rPos = px.mul(px).add(py.mul(py)).lanewise(VectorOperators.SQRT);
+
+            VectorMask<Float> outside = rPos.add(r).compare(VectorOperators.GT, tankRadius);
+            VectorMask<Float> wrapped = wrap
+                    ? rPos.sub(r).compare(VectorOperators.GT, tankRadius)
+                    : SPECIES.maskAll(false);
+            VectorMask<Float> hit = outside.andNot(wrapped);
+            if (!outside.or(wrapped).anyTrue())
+                continue;
+
+            FloatVector wrapScale = FloatVector.broadcast(SPECIES, -0.98f * tankRadius).div(rPos);
+            FloatVector hitScale = FloatVector.broadcast(SPECIES, tankRadius).sub(r).div(rPos);
+            FloatVector scale = FloatVector.broadcast(SPECIES, 1f).blend(hitScale, hit).blend(wrapScale, wrapped);
+            VectorMask<Float> moved = hit.or(wrapped);
+            px.blend(px.mul(scale), moved).intoArray(x, i);
+            py.blend(py.mul(scale), moved).intoArray(y, i);
+
+            FloatVector vx = FloatVector.fromArray(SPECIES, velX, i);
+            FloatVector vy = FloatVector.fromArray(SPECIES, velY, i);
+            FloatVector nx = px.neg().div(rPos);
+            FloatVector ny = py.neg().div(rPos);
+            FloatVector k = nx.mul(vx).add(ny.mul(vy)).mul(-2f);
+            vx.blend(vx.add(nx.mul(k)), hit).intoArray(velX, i);
+            vy.blend(vy.add(ny.mul(k)), hit).intoArray(velY, i);
+        }
+        constrainToTank(x, y, velX, velY, radius, bound, n, tankRadius, wrap);
+    }
+}
@@ -0,0 +1,103 @@
+package protoevo.biology;
+
+import org.openjdk.jmh.annotations.*;
+import protoevo.core.Settings;
+import protoevo.core.Simulation;
+import protoevo.env.Tank;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two vision modes over the same protozoa and the same candidate cells:
+ * casting each retina's rays with a {@link RayCaster}, and drawing the candidates and rocks
+ * into an {@link AngularDepthBuffer}. One operation is the vision of every protozoan with a retina.
+ * The default settings start protozoa without retinas, so the tank is run from a copy of them
+ * in which protozoa start with 16 retina cells. Few of those retinas grow healthy in a short run,
+ * so every protozoan looks out to the full {@link Settings#protozoaInteractRange} whatever its retina's health.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisionBenchmark {
+
+	@Param({"rays", "depth_buffer"})
+	public String mode;
+
+	private Tank tank;
+	private final List<Protozoan> protozoa = new ArrayList<>();
+	private final List<List<Cell>> candidates = new ArrayList<>();
+	private final RayCaster rayCaster = new RayCaster();
+	private final AngularDepthBuffer depthBuffer = new AngularDepthBuffer();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Path settings = Files.createTempFile("vision_benchmark", ".yaml");
+		String yaml = new String(Files.readAllBytes(Paths.get(Simulation.defaultSettingsPath)), StandardCharsets.UTF_8);
+		Files.write(settings, yaml.replaceAll("starting_retina_size: *\\d+", "starting_retina_size: 16")
+				.getBytes(StandardCharsets.UTF_8));
+		Simulation.settingsPath = settings.toString();
+
+		Simulation.RANDOM = new Random(0);
+		tank = new Tank();
+		tank.initialise();
+		for (int t = 0; t < 100; t++)
+			tank.update(Settings.simulationUpdateDelta);
+
+		int nCandidates = 0;
+		for (Cell cell : tank.getEntities()) {
+			if (!(cell instanceof Protozoan))
+				continue;
+			Protozoan p = (Protozoan) cell;
+			if (p.getRetina().numberOfCells() == 0)
+				continue;
+			List<Cell> seen = new ArrayList<>();
+			tank.getChunkManager().forEachCellInRange(p.getX(), p.getY(), Settings.protozoaInteractRange, p,
+					(src, other, delta) -> {
+						float dx = other.getX() - src.getX(), dy = other.getY() - src.getY();
+						float range = Settings.protozoaInteractRange + other.getRadius();
+						if (other != src && dx*dx + dy*dy <= range * range && !src.cullFromRayCasting(other))
+							seen.add(other);
+					}, 0);
+			protozoa.add(p);
+			candidates.add(seen);
+			nCandidates += seen.size();
+		}
+		System.out.printf("%n%d protozoa with retinas, %.1f candidates each%n",
+				protozoa.size(), (float) nCandidates / Math.max(1, protozoa.size()));
+	}
+
+	@Benchmark
+	public void see() {
+		float range = Settings.protozoaInteractRange;
+		for (int i = 0; i < protozoa.size(); i++) {
+			Protozoan p = protozoa.get(i);
+			Retina retina = p.getRetina();
+			List<Cell> seen = candidates.get(i);
+			retina.reset();
+			if (mode.equals("depth_buffer")) {
+				depthBuffer.begin(p, retina, range);
+				for (int k = 0; k < seen.size(); k++)
+					depthBuffer.addCandidate(seen.get(k));
+				tank.getChunkManager().forEachRockInRange(p.getX(), p.getY(), range,
+						depthBuffer, (buffer, rock, delta) -> buffer.addRock(rock), 0);
+				depthBuffer.resolve(retina);
+			} else {
+				rayCaster.begin(p, retina, range, 1);
+				for (int k = 0; k < seen.size(); k++)
+					rayCaster.addCandidate(seen.get(k));
+				rayCaster.cast(tank.getRockEdges());
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package protoevo.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar kinematic kernels with the Vector API ones over random particles.
+ * The vector kernels are only built with the {@code vector} profile, so run with
+ * {@code mvn -P vector,benchmark test-compile exec:exec -Dbenchmark=KinematicKernelsBenchmark} on JDK 17 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KinematicKernelsBenchmark {
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    @Param({"1024", "8192"})
+    public int n;
+
+    private KinematicKernels instance;
+    private float[] x, y, prevX, prevY, velX, velY, accX, accY, radius, stepDelta, dt;
+    private final float tankRadius = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        if (kernels.equals("vector"))
+            instance = (KinematicKernels) Class.forName("protoevo.core.VectorKinematicKernels")
+                    .getDeclaredConstructor().newInstance();
+        else
+            instance = new KinematicKernels();
+
+        Random random = new Random(0);
+        x = new float[n];
+        y = new float[n];
+        prevX = new float[n];
+        prevY = new float[n];
+        velX = new float[n];
+        velY = new float[n];
+        accX = new float[n];
+        accY = new float[n];
+        radius = new float[n];
+        stepDelta = new float[n];
+        dt = new float[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = 2 * random.nextFloat() - 1;
+            y[i] = 2 * random.nextFloat() - 1;
+            prevX[i] = x[i] + 1e-3f * (random.nextFloat() - 0.5f);
+            prevY[i] = y[i] + 1e-3f * (random.nextFloat() - 0.5f);
+            accX[i] = random.nextFloat() - 0.5f;
+            accY[i] = random.nextFloat() - 0.5f;
+            radius[i] = 0.01f + 0.02f * random.nextFloat();
+            stepDelta[i] = Float.NaN;
+            // Some particles sleep, and take no step
+            dt[i] = random.nextInt(8) == 0 ? 0 : Settings.simulationUpdateDelta;
+        }
+    }
+
+    @Benchmark
+    public void integrate() {
+        instance.integrate(x, y, prevX, prevY, velX, velY, accX, accY, stepDelta, dt, n,
+                1f - Settings.tankFluidResistance, Settings.maxParticleSpeed);
+    }
+
+    @Benchmark
+    public void constrainToTank() {
+        instance.constrainToTank(x, y, velX, velY, radius, n, tankRadius, false);
+    }
+}
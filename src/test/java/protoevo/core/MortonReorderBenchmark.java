@@ -0,0 +1,89 @@
+package protoevo.core;
+
+import org.openjdk.jmh.annotations.*;
+import protoevo.biology.Cell;
+import protoevo.env.Tank;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the broad phase and a collision pass over cells whose kinematic slots are in Morton order,
+ * as {@link ChunkManager#reorderAlongZCurve()} leaves them, against the same cells in shuffled slots.
+ * The share of contact pairs whose slots share a 64-byte line of each kinematic array is printed
+ * during setup, as a stand-in for the cache hit rate of the passes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MortonReorderBenchmark {
+
+    private static final int SLOTS_PER_LINE = 64 / Float.BYTES;
+
+    @Param({"shuffled", "morton"})
+    public String layout;
+
+    private ChunkManager chunkManager;
+    private KinematicStore kinematics;
+    private Collection<Cell> cells;
+    private final float delta = Settings.simulationUpdateDelta;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Simulation.RANDOM = new Random(0);
+        Tank tank = new Tank();
+        tank.initialise();
+        for (int t = 0; t < 200; t++)
+            tank.update(delta);
+
+        chunkManager = tank.getChunkManager();
+        kinematics = chunkManager.getKinematics();
+        cells = chunkManager.getAllCells();
+        if (layout.equals("morton")) {
+            chunkManager.reorderAlongZCurve();
+        } else {
+            int n = kinematics.size();
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++)
+                order[i] = i;
+            Random random = new Random(1);
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            chunkManager.reorder(order);
+        }
+        chunkManager.updateContacts(delta);
+
+        long[] counts = new long[2];
+        for (Cell cell : cells)
+            chunkManager.getContacts().forEachPartner(cell, false, (p, other, sqDist, d) -> {
+                counts[0]++;
+                if (((Particle) p).getSlot() / SLOTS_PER_LINE == ((Particle) other).getSlot() / SLOTS_PER_LINE)
+                    counts[1]++;
+            }, delta);
+        System.out.printf("%n%s: %d cells, %.1f%% of %d contact pairs share a line of slots%n",
+                layout, kinematics.size(), 100.0 * counts[1] / Math.max(1, counts[0]), counts[0] / 2);
+    }
+
+    @Benchmark
+    public void contacts() {
+        chunkManager.updateContacts(delta);
+    }
+
+    @Benchmark
+    public void collisionPass() {
+        chunkManager.getContacts().updateDistances();
+        kinematics.beginCorrections();
+        cells.parallelStream()
+                .filter(cell -> !cell.isAsleep())
+                .forEach(cell -> cell.physicsStep(delta));
+        kinematics.applyCorrections();
+    }
+}
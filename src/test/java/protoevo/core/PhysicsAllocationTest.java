@@ -0,0 +1,101 @@
+package protoevo.core;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import protoevo.biology.Cell;
+import protoevo.env.Tank;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards the tick of a fixed-seed tank against allocating per cell, by counting the bytes allocated while it runs.
+ * The tank is run in a pool with a single worker, so that the work of its parallel streams is done by the thread
+ * being counted.
+ */
+public class PhysicsAllocationTest {
+
+    private static final int TICKS = 200;
+    // The physics pass allocates only its parallel streams, whose cost is the same however many cells there are
+    private static final long MAX_PHYSICS_BYTES_PER_TICK = 2048;
+    // The rest of the tick allocates in the biology's maps of food, molecules and bindings
+    private static final double MAX_TICK_BYTES_PER_CELL = 128;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    public static void checkAllocationCounting() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    }
+
+    private static Tank warmTank() {
+        Simulation.RANDOM = new Random(0);
+        Tank tank = new Tank();
+        tank.initialise();
+        // Enough ticks to compile the tick, so that the measured ticks run compiled code
+        for (int t = 0; t < 2 * TICKS; t++)
+            tank.update(Settings.simulationUpdateDelta);
+        // The vector kinematic kernels box their vectors until they are compiled, which takes thousands of calls
+        Collection<Cell> cells = tank.getChunkManager().getAllCells();
+        for (int t = 0; t < 20 * TICKS; t++) {
+            tank.handleTankEdge();
+            tank.physicsUpdate(cells, Settings.simulationUpdateDelta);
+        }
+        return tank;
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void physicsPassDoesNotAllocatePerCell() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            pool.submit(() -> {
+                Tank tank = warmTank();
+                Collection<Cell> cells = tank.getChunkManager().getAllCells();
+
+                long before = allocatedBytes();
+                for (int t = 0; t < TICKS; t++)
+                    tank.physicsUpdate(cells, Settings.simulationUpdateDelta);
+                long perTick = (allocatedBytes() - before) / TICKS;
+
+                assertTrue(perTick <= MAX_PHYSICS_BYTES_PER_TICK, String.format(
+                        "Physics allocated %d bytes per tick of %d cells", perTick, cells.size()));
+            }).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void tankTickAllocationIsBounded() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            pool.submit(() -> {
+                Tank tank = warmTank();
+
+                long cellTicks = 0;
+                long before = allocatedBytes();
+                for (int t = 0; t < TICKS; t++) {
+                    tank.update(Settings.simulationUpdateDelta);
+                    cellTicks += tank.getEntities().size();
+                }
+                double perCellTick = (double) (allocatedBytes() - before) / cellTicks;
+
+                assertTrue(perCellTick < MAX_TICK_BYTES_PER_CELL, String.format(
+                        "Tank.update allocated %.1f bytes per cell per tick", perCellTick));
+            }).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
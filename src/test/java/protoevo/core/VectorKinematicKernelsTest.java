@@ -0,0 +1,145 @@
+package protoevo.core;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the Vector API kinematic kernels give bit-identical results to the scalar ones, over random
+ * particles in numbers that leave a partly filled block of lanes at the end.
+ * The vector kernels are only built with the {@code vector} profile, which also sets {@code vectorKernels}
+ * so that these tests fail rather than being skipped when the kernels cannot be loaded.
+ */
+public class VectorKinematicKernelsTest {
+
+    private static final int[] SIZES = {1, 3, 7, 13, 31, 64, 101, 1027};
+    // Slots past the particles, which neither kernel may touch
+    private static final int PADDING = 17;
+    private static final float TANK_RADIUS = 1;
+
+    private static KinematicKernels vector;
+
+    @BeforeAll
+    public static void loadVectorKernels() throws ReflectiveOperationException {
+        try {
+            vector = (KinematicKernels) Class.forName("protoevo.core.VectorKinematicKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            if (Boolean.getBoolean("vectorKernels"))
+                throw e;
+            assumeTrue(false, "The vector kernels were not built, or the incubator module was not added");
+        }
+    }
+
+    /**
+     * The kinematic arrays of some particles, in every state the kernels treat differently:
+     * new, asleep, changing step length, moving faster than the maximum speed, and past the tank wall.
+     */
+    private static class Particles {
+        final float[] x, y, prevX, prevY, velX, velY, accX, accY, radius, stepDelta, dt;
+
+        Particles(Random random, int n) {
+            int length = n + PADDING;
+            x = new float[length];
+            y = new float[length];
+            prevX = new float[length];
+            prevY = new float[length];
+            velX = new float[length];
+            velY = new float[length];
+            accX = new float[length];
+            accY = new float[length];
+            radius = new float[length];
+            stepDelta = new float[length];
+            dt = new float[length];
+            for (int i = 0; i < length; i++) {
+                x[i] = 2.2f * random.nextFloat() - 1.1f;
+                y[i] = 2.2f * random.nextFloat() - 1.1f;
+                boolean isNew = random.nextInt(8) == 0;
+                prevX[i] = isNew ? Float.NaN : x[i] + 1e-3f * (random.nextFloat() - 0.5f);
+                prevY[i] = isNew ? Float.NaN : y[i] + 1e-3f * (random.nextFloat() - 0.5f);
+                velX[i] = random.nextFloat() - 0.5f;
+                velY[i] = random.nextFloat() - 0.5f;
+                float acc = random.nextInt(4) == 0 ? 1e4f : 1;
+                accX[i] = acc * (random.nextFloat() - 0.5f);
+                accY[i] = acc * (random.nextFloat() - 0.5f);
+                radius[i] = 0.01f + 0.05f * random.nextFloat();
+                dt[i] = random.nextInt(8) == 0 ? 0 : Settings.simulationUpdateDelta * (random.nextBoolean() ? 1 : 0.5f);
+                stepDelta[i] = isNew ? Float.NaN : Settings.simulationUpdateDelta * (random.nextBoolean() ? 1 : 0.5f);
+            }
+        }
+
+        Particles(Particles other) {
+            x = other.x.clone();
+            y = other.y.clone();
+            prevX = other.prevX.clone();
+            prevY = other.prevY.clone();
+            velX = other.velX.clone();
+            velY = other.velY.clone();
+            accX = other.accX.clone();
+            accY = other.accY.clone();
+            radius = other.radius.clone();
+            stepDelta = other.stepDelta.clone();
+            dt = other.dt.clone();
+        }
+
+        void integrate(KinematicKernels kernels, int n) {
+            kernels.integrate(x, y, prevX, prevY, velX, velY, accX, accY, stepDelta, dt, n,
+                    1f - Settings.tankFluidResistance, Settings.maxParticleSpeed);
+        }
+
+        void constrainToTank(KinematicKernels kernels, int n, boolean wrap) {
+            kernels.constrainToTank(x, y, velX, velY, radius, n, TANK_RADIUS, wrap);
+        }
+    }
+
+    private static void assertBitIdentical(float[] expected, float[] actual, String name, int n) {
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(actual[i]),
+                    String.format("%s[%d] of %d particles: expected %s but was %s", name, i, n, expected[i], actual[i]));
+    }
+
+    private static void assertBitIdentical(Particles expected, Particles actual, int n) {
+        assertBitIdentical(expected.x, actual.x, "x", n);
+        assertBitIdentical(expected.y, actual.y, "y", n);
+        assertBitIdentical(expected.prevX, actual.prevX, "prevX", n);
+        assertBitIdentical(expected.prevY, actual.prevY, "prevY", n);
+        assertBitIdentical(expected.velX, actual.velX, "velX", n);
+        assertBitIdentical(expected.velY, actual.velY, "velY", n);
+        assertBitIdentical(expected.stepDelta, actual.stepDelta, "stepDelta", n);
+    }
+
+    @Test
+    public void integrateMatchesScalarKernels() {
+        KinematicKernels scalar = new KinematicKernels();
+        Random random = new Random(0);
+        for (int n : SIZES) {
+            Particles expected = new Particles(random, n);
+            Particles actual = new Particles(expected);
+            // Several steps, so that the later ones start from a carried-over step length
+            for (int t = 0; t < 3; t++) {
+                expected.integrate(scalar, n);
+                actual.integrate(vector, n);
+                assertBitIdentical(expected, actual, n);
+            }
+        }
+    }
+
+    @Test
+    public void constrainToTankMatchesScalarKernels() {
+        KinematicKernels scalar = new KinematicKernels();
+        Random random = new Random(0);
+        for (boolean wrap : new boolean[]{false, true}) {
+            for (int n : SIZES) {
+                Particles expected = new Particles(random, n);
+                Particles actual = new Particles(expected);
+                expected.constrainToTank(scalar, n, wrap);
+                actual.constrainToTank(vector, n, wrap);
+                assertBitIdentical(expected, actual, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package protoevo.neat;
+
+import org.openjdk.jmh.annotations.*;
+import protoevo.core.Simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ticking the brains of a tank's worth of protozoa one network at a time, as {@code Tank.updateCell} does,
+ * with ticking them together through a {@link NetworkBatcher}, as {@code batch_brain_evaluation} does.
+ * The networks start from the fully connected genomes that protozoa start with, each mutated up to
+ * {@link #mutations} times, so that more or fewer of them share a topology.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuralNetworkBenchmark {
+
+    private static final int SENSORS = 32, OUTPUTS = 6;
+
+    @Param({"each", "parallel", "batched"})
+    public String mode;
+
+    @Param({"250", "1000"})
+    public int networks;
+
+    @Param({"0", "3"})
+    public int mutations;
+
+    private final List<NeuralNetwork> brains = new ArrayList<>();
+    private final NetworkBatcher batcher = new NetworkBatcher();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Simulation.RANDOM = new Random(0);
+        while (brains.size() < networks) {
+            Neuron.Activation activation = brains.size() % 2 == 0 ? Neuron.Activation.TANH : Neuron.Activation.SIGMOID;
+            NetworkGenome genome = new NetworkGenome(SENSORS, OUTPUTS, activation);
+            int n = Simulation.RANDOM.nextInt(mutations + 1);
+            for (int i = 0; i < n; i++)
+                genome.mutate();
+            try {
+                brains.add(genome.phenotype());
+            } catch (IllegalArgumentException ignored) {}
+        }
+
+        Random random = new Random(1);
+        for (NeuralNetwork brain : brains) {
+            float[] inputs = new float[brain.getInputSize()];
+            for (int i = 0; i < inputs.length; i++)
+                inputs[i] = 2 * random.nextFloat() - 1;
+            brain.setInput(inputs);
+        }
+
+        if (mode.equals("batched")) {
+            batcher.tick(brains);
+            System.out.printf("%n%d of %d networks batched, in %d batches%n",
+                    batcher.getBatchedNetworks(), batcher.getNetworks(), batcher.getBatches());
+        }
+    }
+
+    @Benchmark
+    public void tick() {
+        if (mode.equals("batched")) {
+            batcher.tick(brains);
+        } else if (mode.equals("parallel")) {
+            brains.parallelStream().forEach(NeuralNetwork::tick);
+        } else {
+            for (int i = 0; i < brains.size(); i++)
+                brains.get(i).tick();
+        }
+    }
+}
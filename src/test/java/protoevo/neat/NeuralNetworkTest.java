@@ -0,0 +1,173 @@
+package protoevo.neat;
+
+import org.junit.jupiter.api.Test;
+import protoevo.core.Simulation;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks compiled networks against the tick of the original object network, in which each neuron summed
+ * the states of its inputs times their weights from zero, in the order of its synapse genes.
+ * The object network also summed disabled synapses, which compiled networks leave out on purpose,
+ * so the reference leaves them out too.
+ */
+public class NeuralNetworkTest {
+
+    private static final int SENSORS = 12, OUTPUTS = 4, TICKS = 50;
+    // How far a crossover child's outputs may move when its inputs are summed in another order
+    private static final float REORDER_TOLERANCE = 1e-6f;
+
+    /**
+     * Ticks the genome's enabled synapses as the object network did, returning the outputs after each tick.
+     */
+    static float[][] referenceOutputs(NetworkGenome genome, float[][] inputs) {
+        return referenceOutputs(genome, genome.getSynapseGenes(), inputs);
+    }
+
+    /**
+     * As above, but summing each neuron's inputs in the order they come in the given synapses.
+     */
+    static float[][] referenceOutputs(NetworkGenome genome, SynapseGene[] synapses, float[][] inputs) {
+        int size = 0;
+        for (SynapseGene g : synapses)
+            size = Math.max(size, Math.max(g.getIn().getId(), g.getOut().getId()) + 1);
+        // Parents can number different neurons alike, and a crossover child has the first that its genes connect
+        NeuronGene[] neurons = new NeuronGene[size];
+        for (SynapseGene g : genome.getSynapseGenes()) {
+            for (NeuronGene n : new NeuronGene[]{g.getIn(), g.getOut()})
+                if (neurons[n.getId()] == null)
+                    neurons[n.getId()] = n;
+        }
+
+        float[] state = new float[size], nextState = new float[size];
+        float[][] outputs = new float[inputs.length][];
+        for (int t = 0; t < inputs.length; t++) {
+            int slot = 0;
+            for (int id = 0; id < size; id++)
+                if (neurons[id].getType() == Neuron.Type.SENSOR)
+                    state[id] = inputs[t][slot++];
+
+            for (int id = 0; id < size; id++) {
+                float z = 0.0f;
+                for (SynapseGene g : synapses)
+                    if (!g.isDisabled() && g.getOut().getId() == id)
+                        z += state[g.getIn().getId()] * g.getWeight();
+                nextState[id] = activate(neurons[id].getActivation(), z);
+            }
+            System.arraycopy(nextState, 0, state, 0, size);
+
+            outputs[t] = new float[OUTPUTS];
+            int o = 0;
+            for (int id = 0; id < size; id++)
+                if (neurons[id].getType() == Neuron.Type.OUTPUT)
+                    outputs[t][o++] = state[id];
+        }
+        return outputs;
+    }
+
+    private static float activate(Neuron.Activation activation, float z) {
+        switch (activation) {
+            case SIGMOID:
+                return 1 / (1 + (float) Math.exp(-z));
+            case TANH:
+                return (float) Math.tanh(z);
+            default:
+                return z;
+        }
+    }
+
+    /**
+     * Random inputs for each tick, the first of which are always the given constants.
+     */
+    static float[][] randomInputs(Random random, float[] constants) {
+        float[][] inputs = new float[TICKS][SENSORS];
+        for (float[] tick : inputs) {
+            for (int i = 0; i < SENSORS; i++)
+                tick[i] = i < constants.length ? constants[i] : 2 * random.nextFloat() - 1;
+        }
+        return inputs;
+    }
+
+    static NetworkGenome randomGenome(Random random, int maxMutations) {
+        Neuron.Activation activation = random.nextBoolean() ? Neuron.Activation.TANH : Neuron.Activation.SIGMOID;
+        NetworkGenome genome = new NetworkGenome(SENSORS, OUTPUTS, activation);
+        int mutations = random.nextInt(maxMutations + 1);
+        for (int i = 0; i < mutations; i++)
+            genome.mutate();
+        return genome;
+    }
+
+    private static void assertMatchesReference(NetworkGenome genome, float[] constants, Random random) {
+        float[][] inputs = randomInputs(random, constants);
+        float[][] expected = referenceOutputs(genome, inputs);
+        NeuralNetwork network = genome.phenotype(constants);
+        for (int t = 0; t < TICKS; t++) {
+            network.setInput(inputs[t]);
+            network.tick();
+            float[] outputs = network.outputs();
+            for (int o = 0; o < OUTPUTS; o++)
+                assertEquals(Float.floatToIntBits(expected[t][o]), Float.floatToIntBits(outputs[o]),
+                        String.format("Output %d of tick %d: expected %s but was %s", o, t, expected[t][o], outputs[o]));
+        }
+    }
+
+    @Test
+    public void compiledNetworkMatchesObjectNetworkBitForBit() {
+        Simulation.RANDOM = new Random(0);
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++)
+            assertMatchesReference(randomGenome(Simulation.RANDOM, 20), new float[0], random);
+    }
+
+    /**
+     * Crossover children were wired in the order of a hash set of innovation numbers, and are now wired in
+     * order of innovation number, so their sums can be rounded differently than before. They still match
+     * the object network exactly when it sums in order of innovation number.
+     */
+    @Test
+    public void crossoverChildrenAreCloseToAnyOrderOfInputs() {
+        Simulation.RANDOM = new Random(0);
+        Random random = new Random(1);
+        float maxDifference = 0;
+        for (int n = 0; n < 200; n++) {
+            NetworkGenome child = randomGenome(Simulation.RANDOM, 20).crossover(randomGenome(Simulation.RANDOM, 20));
+            NeuralNetwork network;
+            try {
+                network = child.phenotype();
+            } catch (IllegalArgumentException e) {
+                // The child lost a hidden neuron that others are numbered after, which no network can be built for
+                continue;
+            }
+            float[][] inputs = randomInputs(random, new float[0]);
+
+            List<SynapseGene> shuffled = new ArrayList<>(Arrays.asList(child.getSynapseGenes()));
+            Collections.shuffle(shuffled, random);
+            float[][] expected = referenceOutputs(child, shuffled.toArray(new SynapseGene[0]), inputs);
+            float[][] inOrder = referenceOutputs(child, inputs);
+
+            for (int t = 0; t < TICKS; t++) {
+                network.setInput(inputs[t]);
+                network.tick();
+                float[] outputs = network.outputs();
+                for (int o = 0; o < OUTPUTS; o++) {
+                    assertEquals(Float.floatToIntBits(inOrder[t][o]), Float.floatToIntBits(outputs[o]));
+                    maxDifference = Math.max(maxDifference, Math.abs(outputs[o] - expected[t][o]));
+                }
+            }
+        }
+        assertTrue(maxDifference <= REORDER_TOLERANCE, "Outputs differed by up to " + maxDifference);
+    }
+
+    @Test
+    public void foldedConstantInputsKeepTheirPlaceInTheSum() {
+        Simulation.RANDOM = new Random(0);
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            float[] constants = {1, 0.37f, -2.5f};
+            assertMatchesReference(randomGenome(Simulation.RANDOM, 20), constants, random);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package protoevo.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the table-driven tanh and sigmoid with the exact ones that {@code fast_activation_functions} replaces,
+ * over arguments spread like the weighted sums of a network's neurons. One operation is one call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(CachedMathBenchmark.N)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedMathBenchmark {
+
+    static final int N = 4096;
+
+    private final float[] x = new float[N];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(0);
+        for (int i = 0; i < N; i++)
+            x[i] = (float) (3 * random.nextGaussian());
+    }
+
+    @Benchmark
+    public float tanhExact() {
+        float sum = 0;
+        for (int i = 0; i < N; i++)
+            sum += (float) Math.tanh(x[i]);
+        return sum;
+    }
+
+    @Benchmark
+    public float tanhCached() {
+        float sum = 0;
+        for (int i = 0; i < N; i++)
+            sum += CachedMath.tanh(x[i]);
+        return sum;
+    }
+
+    @Benchmark
+    public float sigmoidExact() {
+        float sum = 0;
+        for (int i = 0; i < N; i++)
+            sum += 1 / (1 + (float) Math.exp(-x[i]));
+        return sum;
+    }
+
+    @Benchmark
+    public float sigmoidCached() {
+        float sum = 0;
+        for (int i = 0; i < N; i++)
+            sum += CachedMath.sigmoid(x[i]);
+        return sum;
+    }
+}
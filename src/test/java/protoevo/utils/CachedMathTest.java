@@ -0,0 +1,65 @@
+package protoevo.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the table-driven activations against the functions they stand in for,
+ * over a fine sweep past the end of the tanh table and over random arguments of every magnitude.
+ */
+public class CachedMathTest {
+
+    private static final double TANH_ERROR = 6e-6, SIGMOID_ERROR = 3e-6;
+    private static final float SWEEP_RANGE = 20, SWEEP_STEP = 1e-4f;
+
+    private static double sigmoid(float x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+
+    private static void assertWithin(double expected, float actual, double error, String name, float x) {
+        assertTrue(Math.abs(actual - expected) <= error,
+                String.format("%s(%s) = %s, expected %s within %s", name, x, actual, expected, error));
+    }
+
+    private static void checkAt(float x) {
+        assertWithin(Math.tanh(x), CachedMath.tanh(x), TANH_ERROR, "tanh", x);
+        assertWithin(sigmoid(x), CachedMath.sigmoid(x), SIGMOID_ERROR, "sigmoid", x);
+    }
+
+    @Test
+    public void activationsAreWithinBoundsOverSweep() {
+        int steps = (int) (SWEEP_RANGE / SWEEP_STEP);
+        for (int i = -steps; i <= steps; i++)
+            checkAt(i * SWEEP_STEP);
+    }
+
+    @Test
+    public void activationsAreWithinBoundsAtRandomArguments() {
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            checkAt((float) (4 * random.nextGaussian()));
+            // Arguments of every magnitude, from subnormal to the largest finite float
+            float x = Float.intBitsToFloat(random.nextInt(Float.floatToRawIntBits(Float.MAX_VALUE) + 1));
+            checkAt(random.nextBoolean() ? x : -x);
+        }
+    }
+
+    @Test
+    public void activationsHandleInfinitiesAndNaN() {
+        assertEquals(1f, CachedMath.tanh(Float.POSITIVE_INFINITY));
+        assertEquals(-1f, CachedMath.tanh(Float.NEGATIVE_INFINITY));
+        assertEquals(1f, CachedMath.sigmoid(Float.POSITIVE_INFINITY));
+        assertEquals(0f, CachedMath.sigmoid(Float.NEGATIVE_INFINITY));
+        assertTrue(Float.isNaN(CachedMath.tanh(Float.NaN)));
+        assertTrue(Float.isNaN(CachedMath.sigmoid(Float.NaN)));
+
+        checkAt(Float.POSITIVE_INFINITY);
+        checkAt(Float.NEGATIVE_INFINITY);
+        checkAt(Float.MAX_VALUE);
+        checkAt(-Float.MAX_VALUE);
+    }
+}